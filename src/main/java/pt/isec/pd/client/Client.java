@@ -8,15 +8,23 @@ import pt.isec.pd.common.Message;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Client {
+    private static final int RECONNECT_ATTEMPTS = 8;
+    private static final long RECONNECT_MAX_BACKOFF_MS = 8000;
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.err.println("Usage: java pt.isec.pd.client.Client <DirectoryServiceIP> <DirectoryServicePort>");
+            System.err.println("Usage: java pt.isec.pd.client.Client <DirectoryServiceIP> <DirectoryServicePort> [read]");
             System.exit(1);
         }
+        // read-only sessions (browsing, exports) may be routed to a backup server
+        boolean readOnly = args.length > 2 && "read".equalsIgnoreCase(args[2]);
 
         String dsAddress = args[0];
         int dsPort;
@@ -30,81 +38,68 @@ public class Client {
 
         System.out.println("Client starting...");
         System.out.println("Attempting to contact Directory Service at " + dsAddress + ":" + dsPort);
-        String principalServer = null;
-
-        try (Udp clientUdp = new Udp(dsAddress, dsPort)) {
-            Message requestMessage = new Message("CLIENT_REQUEST", "GET_PRINCIPAL_SERVER");
-            clientUdp.send(requestMessage);
-            System.out.println("UDP request sent to DS.");
-
-            clientUdp.setSoTimeout(5000);
-            System.out.println("\n--- Waiting for response from DS...");
-            Object receivedObject = clientUdp.receive();
-            Message responseMessage = (Message) receivedObject;
-
-            if ("DS_RESPONSE".equals(responseMessage.getType())) {
-                principalServer = responseMessage.getContent();
-                System.out.println("Response received. Principal Server: " + principalServer);
-            } else {
-                System.out.println("Unexpected response from DS. Exiting.");
-                return;
-            }
-
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Failed UDP communication with DS. Exiting. (Reason: " + e.getMessage() + ")");
-            return;
-        }
-
+        String principalServer = lookupServer(dsAddress, dsPort, readOnly);
         if (principalServer == null) return;
 
         String[] tokens = principalServer.split(":", 2);
-        if (tokens.length != 2) {
-            System.err.println("Invalid principal server, expected format host:port");
-            return;
-        }
-
         String host = tokens[0];
-        int port;
-        try {
-            port = Integer.parseInt(tokens[1]);
-        } catch (NumberFormatException nfe) {
-            System.err.println("Invalid port in principal server: " + tokens[1]);
-            return;
-        }
+        int port = Integer.parseInt(tokens[1]);
 
         System.out.println("Connecting to Principal Server at " + host + ":" + port);
         System.out.println("\n--- Establishing TCP connection to principal server: " + host + ":" + port);
 
-        Tcp clientTcp = null;
+        AtomicReference<Tcp> connection = new AtomicReference<>();
         Thread listener = null;
         AtomicBoolean loggedIn = new AtomicBoolean(false);
+        // session token from AUTH_SUCCESS, used to resume after losing the server
+        AtomicReference<String> sessionToken = new AtomicReference<>();
 
         try {
-            clientTcp = new Tcp(host, port);
+            connection.set(new Tcp(host, port));
             System.out.println("TCP connection established successfully!");
 
-            Tcp finalClientTcp = clientTcp;
             listener = new Thread(() -> {
-                try {
-                    while (!Thread.currentThread().isInterrupted()) {
-                        Object resp = finalClientTcp.receive();
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        Object resp = connection.get().receive();
                         if (resp instanceof Message) {
                             Message serverMsg = (Message) resp;
                             System.out.println("\n[Server] " + serverMsg);
                             // mark as logged in when server sends AUTH_SUCCESS
-                            if ("AUTH_SUCCESS".equals(serverMsg.getType())) {
-                                loggedIn.set(true);
-                            } else if ("LOGOUT_SUCCESS".equals(serverMsg.getType())) {
-                                loggedIn.set(false);
+                            switch (serverMsg.getType()) {
+                                case "AUTH_SUCCESS" -> {
+                                    String[] parts = serverMsg.getContent().split("\\|", 2);
+                                    sessionToken.set(parts.length == 2 ? parts[1] : null);
+                                    loggedIn.set(true);
+                                }
+                                case "RESUME_SUCCESS" -> loggedIn.set(true);
+                                case "BATCH_RESPONSE" -> {
+                                    if (serverMsg.getPayload() instanceof List<?> results) {
+                                        for (int i = 0; i < results.size(); i++) {
+                                            System.out.println("  [" + (i + 1) + "] " + results.get(i));
+                                        }
+                                    }
+                                }
+                                case "LOGOUT_SUCCESS", "RESUME_FAILURE" -> {
+                                    sessionToken.set(null);
+                                    loggedIn.set(false);
+                                }
+                                default -> { }
                             }
                             System.out.print("> ");
                         } else {
                             System.out.println("\n[Server] Unexpected TCP response.");
                             System.out.print("> ");
                         }
+                    } catch (IOException | ClassNotFoundException e) {
+                        if (Thread.currentThread().isInterrupted()) break;
+                        System.err.println("\nConnection lost: " + e.getMessage() + ". Reconnecting...");
+                        if (!reconnect(dsAddress, dsPort, readOnly, connection, sessionToken.get())) {
+                            System.err.println("Could not reconnect to any server.");
+                            loggedIn.set(false);
+                            break;
+                        }
                     }
-                } catch (IOException | ClassNotFoundException e) {
-                    System.err.println("\nListener stopped: " + e.getMessage());
                 }
             }, "tcp-listener");
             listener.setDaemon(true);
@@ -147,7 +142,7 @@ public class Client {
                             }
                             if (email == null || password == null) continue;
                             String payload = role + "|" + email + "|" + password + "|" + (name == null ? "" : name) + "|" + (extra == null ? "" : extra);
-                            clientTcp.send(new Message("REGISTER_REQUEST", payload));
+                            send(connection, new Message("REGISTER_REQUEST", payload));
                             System.out.println("Registration request sent. Waiting for server response...");
                         } else if ("2".equals(choice)) {
                             // choose role
@@ -163,7 +158,7 @@ public class Client {
                             String password = console.readLine();
                             if (email == null || password == null) continue;
                             String payload = role + "|" + email + "|" + password;
-                            clientTcp.send(new Message("AUTH_REQUEST", payload));
+                            send(connection, new Message("AUTH_REQUEST", payload));
                             System.out.println("Login request sent. Waiting for server response...");
                             // wait short time for AUTH_SUCCESS
                             long start = System.currentTimeMillis();
@@ -188,6 +183,7 @@ public class Client {
                         System.out.println("2) Logout");
                         System.out.println("3) Exit");
                         System.out.println("Enter a command or type a message to broadcast.");
+                        System.out.println("Raw requests: /TYPE content  (\\n in content starts a new line)");
                         String line;
                         System.out.print("> ");
                         while ((line = console.readLine()) != null) {
@@ -197,7 +193,7 @@ public class Client {
                                 return;
                             }
                             if ("2".equalsIgnoreCase(command) || "logout".equalsIgnoreCase(command)) {
-                                clientTcp.send(new Message("LOGOUT_REQUEST", ""));
+                                send(connection, new Message("LOGOUT_REQUEST", ""));
                                 System.out.println("Logout requested. Returning to initial menu...");
                                 break; // break inner loop to show initial menu
                             }
@@ -212,7 +208,7 @@ public class Client {
                                 String payload = (newName == null ? "" : newName) + "|" +
                                         (newEmail == null ? "" : newEmail) + "|" +
                                         (newPassword == null ? "" : newPassword);
-                                clientTcp.send(new Message("UPDATE_PROFILE_REQUEST", payload));
+                                send(connection, new Message("UPDATE_PROFILE_REQUEST", payload));
                                 System.out.println("Update request sent.");
                                 System.out.print("> ");
                                 continue;
@@ -222,7 +218,28 @@ public class Client {
                                 System.out.print("> ");
                                 continue;
                             }
-                            clientTcp.send(new Message("CLIENT_MESSAGE", line));
+                            if (command.toUpperCase().startsWith("/BATCH ")) {
+                                // e.g. /BATCH SUBMIT_ANSWER ABC123|a ;; LIST_QUESTIONS ACTIVE
+                                ArrayList<Message> requests = new ArrayList<>();
+                                for (String part : command.substring(7).split(";;")) {
+                                    String[] request = part.trim().split(" ", 2);
+                                    if (request[0].isEmpty()) continue;
+                                    String content = request.length > 1 ? request[1].replace("\\n", "\n") : "";
+                                    requests.add(new Message(request[0].toUpperCase(), content));
+                                }
+                                send(connection, new Message("BATCH", String.valueOf(requests.size()), requests));
+                                System.out.print("> ");
+                                continue;
+                            }
+                            if (command.startsWith("/") && command.length() > 1) {
+                                // e.g. /CREATE_QUESTION text|2025-10-20 10:00|2025-10-20 10:05|b|opt a|opt b
+                                String[] request = command.substring(1).split(" ", 2);
+                                String content = request.length > 1 ? request[1].replace("\\n", "\n") : "";
+                                send(connection, new Message(request[0].toUpperCase(), content));
+                                System.out.print("> ");
+                                continue;
+                            }
+                            send(connection, new Message("CLIENT_MESSAGE", line));
                             System.out.print("> ");
                         }
                     }
@@ -235,6 +252,7 @@ public class Client {
             if (listener != null) {
                 listener.interrupt();
             }
+            Tcp clientTcp = connection.get();
             if (clientTcp != null) {
                 try {
                     clientTcp.close();
@@ -246,4 +264,85 @@ public class Client {
 
         System.out.println("\nClient closed.");
     }
+
+    // Asks the DS which server to use; returns "host:port" or null
+    private static String lookupServer(String dsAddress, int dsPort, boolean readOnly) {
+        String server;
+        try (Udp clientUdp = new Udp(dsAddress, dsPort)) {
+            Message requestMessage = new Message("CLIENT_REQUEST", readOnly ? "GET_READ_SERVER" : "GET_PRINCIPAL_SERVER");
+            clientUdp.send(requestMessage);
+            System.out.println("UDP request sent to DS.");
+
+            clientUdp.setSoTimeout(5000);
+            System.out.println("\n--- Waiting for response from DS...");
+            Object receivedObject = clientUdp.receive();
+            Message responseMessage = (Message) receivedObject;
+
+            if ("DS_RESPONSE".equals(responseMessage.getType())) {
+                server = responseMessage.getContent();
+                System.out.println("Response received. Principal Server: " + server);
+            } else {
+                System.out.println("Unexpected response from DS. Exiting.");
+                return null;
+            }
+
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Failed UDP communication with DS. Exiting. (Reason: " + e.getMessage() + ")");
+            return null;
+        }
+
+        if (server == null) return null;
+
+        String[] tokens = server.split(":", 2);
+        if (tokens.length != 2) {
+            System.err.println("Invalid principal server, expected format host:port");
+            return null;
+        }
+        try {
+            Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException nfe) {
+            System.err.println("Invalid port in principal server: " + tokens[1]);
+            return null;
+        }
+        return server;
+    }
+
+    // Finds the current server through the DS and resumes the session with the token, if any.
+    // Attempts back off with random jitter so clients of a failed server don't all arrive at once.
+    private static boolean reconnect(String dsAddress, int dsPort, boolean readOnly,
+                                     AtomicReference<Tcp> connection, String token) {
+        try { connection.get().close(); } catch (IOException ignored) {}
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS; attempt++) {
+            try {
+                long backoff = Math.min(RECONNECT_MAX_BACKOFF_MS, 500L << Math.min(attempt, 5));
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            String server = lookupServer(dsAddress, dsPort, readOnly);
+            if (server == null) continue;
+            String[] tokens = server.split(":", 2);
+            try {
+                Tcp tcp = new Tcp(tokens[0], Integer.parseInt(tokens[1]));
+                if (token != null) {
+                    tcp.send(new Message("RESUME_REQUEST", token));
+                }
+                connection.set(tcp);
+                System.out.println("Reconnected to " + server + (token != null ? ", resuming session..." : ""));
+                return true;
+            } catch (IOException e) {
+                System.err.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private static void send(AtomicReference<Tcp> connection, Message msg) {
+        try {
+            connection.get().send(msg);
+        } catch (IOException e) {
+            System.err.println("Not connected to a server right now, try again in a moment.");
+        }
+    }
 }
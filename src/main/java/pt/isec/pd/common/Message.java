@@ -7,10 +7,17 @@ public class Message implements Serializable {
 
     private final String type;
     private final String content;
+    // structured data for messages that don't fit in one string (e.g. the requests of a BATCH); usually null
+    private final Serializable payload;
 
     public Message(String type, String content) {
+        this(type, content, null);
+    }
+
+    public Message(String type, String content, Serializable payload) {
         this.type = type;
         this.content = content;
+        this.payload = payload;
     }
 
     public String getType() {
@@ -21,8 +28,12 @@ public class Message implements Serializable {
         return content;
     }
 
+    public Serializable getPayload() {
+        return payload;
+    }
+
     @Override
     public String toString() {
-        return "Message{type='" + type + "', content='" + content + "'}";
+        return "Message{type='" + type + "', content='" + content + "'" + (payload == null ? "" : ", payload=" + payload) + "}";
     }
 }
\ No newline at end of file
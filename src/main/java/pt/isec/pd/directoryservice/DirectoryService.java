@@ -3,13 +3,14 @@ package pt.isec.pd.directoryservice;
 
 import pt.isec.pd.common.Message;
 import pt.isec.pd.sockets.Udp;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class DirectoryService {
@@ -17,102 +18,223 @@ public class DirectoryService {
     // Map<CopyAddress, ClientAddress>
     private static final ConcurrentHashMap<String, String> serverMap = new ConcurrentHashMap<>();
     private static final AtomicReference<String> principalServerCopyAddr = new AtomicReference<>(null);
-    // track last heartbeat time (ms) per server copyAddress
-    private static final ConcurrentHashMap<String, Long> lastSeen = new ConcurrentHashMap<>();
+    // single failure detector for all servers, fed by their heartbeats
+    private static final FailureDetector failureDetector = new FailureDetector(DirectoryService::handleServerFailure);
+    // replication version and load advertised in each server's last heartbeat
+    private static final ConcurrentHashMap<String, ServerStatus> serverStatus = new ConcurrentHashMap<>();
+    // clients handed to each server since its last heartbeat (not yet reflected in its load)
+    private static final ConcurrentHashMap<String, AtomicInteger> assignedSinceHeartbeat = new ConcurrentHashMap<>();
+    // how far (ms of db version) a backup may lag behind the principal and still serve reads
+    private static final long MAX_REPLICA_LAG_MS = Long.getLong("pd.ds.maxReplicaLagMs", 5000);
+    // registry persisted across restarts (snapshot + append-only journal)
+    private static final RegistryJournal journal = new RegistryJournal(
+            System.getProperty("pd.ds.registryFile", "data/ds/registry"), serverMap, principalServerCopyAddr);
+    // pre-encoded DS_RESPONSE datagrams, rebuilt only when the registry or the principal changes:
+    // DS_RESPONSE(clientAddr) per server copyAddr, for client lookups
+    private static final ConcurrentHashMap<String, byte[]> clientReplies = new ConcurrentHashMap<>();
+    // DS_RESPONSE(principal copyAddr), the reply to every heartbeat
+    private static volatile byte[] heartbeatReply = encodeReply("DS_RESPONSE", "");
+    // all replies and notifications go out through the DS socket itself
+    private static volatile Udp dsSocket;
+
+    private static final Metrics.Histogram LOOKUP_TIMER = Metrics.timer("ds.lookup");
+    private static final Metrics.Counter LOOKUP_READ = Metrics.counter("ds.lookup.readServer");
+    private static final Metrics.Counter LOOKUP_UNAVAILABLE = Metrics.counter("ds.lookup.unavailable");
+    private static final Metrics.Counter HEARTBEATS = Metrics.counter("ds.heartbeats");
 
     public static void main(String[] args) {
-        System.out.println("Directory Service starting on UDP port: " + DS_PORT);
+        Log.info("Directory Service starting on UDP port: {}", DS_PORT);
 
-        // start background thread to remove stale servers
-        Thread t = new Thread(new TimeCheckThread(serverMap, lastSeen, principalServerCopyAddr), "ds-timecheck");
-        t.setDaemon(true);
-        t.start();
+        restoreRegistry();
+        Metrics.gauge("ds.servers", serverMap::size);
+        Metrics.start();
 
         try (Udp dsUdp = new Udp(DS_PORT)) {
+            dsSocket = dsUdp;
             while (true) {
-                System.out.println("\n--- Waiting for messages (Clients/Servers)...");
-                String curr = principalServerCopyAddr.get();
-                if (curr != null) {
-                    System.out.println("Current Principal Server (Copy Addr): " + curr);
-                    System.out.println("Current Principal Server (Client Addr): " + serverMap.get(curr));
-                    int backupCount = serverMap.size() - 1;
-                    System.out.println("Number of Backup Servers: " + backupCount);
-                } else {
-                    System.out.println("No servers registered yet.");
-                }
-
                 Object receivedObject = dsUdp.receive();
                 if (!(receivedObject instanceof Message message)) {
                     continue;
                 }
 
-                String clientAddress = dsUdp.getLastAddress().getHostAddress();
+                InetAddress sourceInet = dsUdp.getLastAddress();
+                String clientAddress = sourceInet.getHostAddress();
                 int clientPort = dsUdp.getLastPort();
-                String source = clientAddress + ":" + clientPort;
 
-                System.out.println("Message received from " + source);
-                System.out.println("Content: " + message);
+                Log.debug("Message received from {}:{} -> {}", clientAddress, clientPort, message);
 
-                handleMessage(message, clientAddress, clientPort);
+                handleMessage(message, sourceInet, clientAddress, clientPort);
             }
         } catch (SocketException e) {
-            System.err.println("Socket error in DS: " + e.getMessage());
+            Log.error("Socket error in DS: {}", e.getMessage());
         } catch (IOException e) {
-            System.err.println("I/O error in DS: " + e.getMessage());
+            Log.error("I/O error in DS: {}", e.getMessage());
         } catch (ClassNotFoundException e) {
-            System.err.println("Serialization error in DS: " + e.getMessage());
+            Log.error("Serialization error in DS: {}", e.getMessage());
+        }
+        Log.flush();
+    }
+
+    // Reloads the last known registry so lookups are answered right away; servers that don't
+    // heartbeat again are dropped by the failure detector like any other silent server.
+    private static void restoreRegistry() {
+        synchronized (serverMap) {
+            try {
+                journal.restore();
+            } catch (IOException e) {
+                Log.error("Could not restore DS registry, starting empty: {}", e.getMessage());
+                return;
+            }
+            serverMap.forEach((copyAddr, clientAddr) -> {
+                clientReplies.put(copyAddr, encodeReply("DS_RESPONSE", clientAddr));
+                failureDetector.track(copyAddr);
+            });
+            heartbeatReply = encodeReply("DS_RESPONSE", principalServerCopyAddr.get());
+            if (!serverMap.isEmpty()) {
+                Log.info("Restored {} server(s) from registry, principal: {}", serverMap.size(), principalServerCopyAddr.get());
+            }
+        }
+    }
+
+    // must hold the serverMap lock
+    private static void setPrincipal(String copyAddr) {
+        principalServerCopyAddr.set(copyAddr);
+        heartbeatReply = encodeReply("DS_RESPONSE", copyAddr);
+        journal.principalChanged(copyAddr);
+    }
+
+    // must hold the serverMap lock
+    private static void putServer(String copyAddr, String clientAddr) {
+        serverMap.put(copyAddr, clientAddr);
+        clientReplies.put(copyAddr, encodeReply("DS_RESPONSE", clientAddr));
+        journal.registered(copyAddr, clientAddr);
+    }
+
+    private static byte[] encodeReply(String type, String content) {
+        try {
+            return Udp.encode(new Message(type, content == null ? "" : content));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode " + type + ": " + e.getMessage(), e);
         }
     }
 
-    private static void handleMessage(Message msg, String sourceAddress, int sourcePort) {
+    private static void reply(byte[] data, InetAddress address, int port) {
+        Udp socket = dsSocket;
+        if (socket == null) return;
+        try {
+            socket.sendBytes(data, address, port);
+        } catch (IOException e) {
+            Log.warn("Error sending UDP reply to {}:{}: {}", address, port, e.getMessage());
+        }
+    }
+
+    private static void handleMessage(Message msg, InetAddress source, String sourceAddress, int sourcePort) {
         switch (msg.getType()) {
             case "CLIENT_REQUEST":
-                handleClientRequest(sourceAddress, sourcePort);
+                handleClientRequest(msg.getContent(), source, sourcePort);
                 break;
             case "SERVER_REGISTER":
                 handleServerRegister(msg.getContent(), sourceAddress, sourcePort);
                 break;
             case "HEARTBEAT":
-                handleHeartbeat(msg.getContent(), sourceAddress, sourcePort);
+                handleHeartbeat(msg.getContent(), source, sourceAddress, sourcePort);
                 break;
             case "SERVER_DEREGISTER":
                 handleServerDeregister(msg.getContent());
                 break;
             default:
-                System.out.println("Unknown message type: " + msg.getType());
+                Log.warn("Unknown message type: {}", msg.getType());
                 break;
         }
     }
 
-    private static void handleClientRequest(String clientAddress, int clientPort) {
-        System.out.println("Client request. Preparing response...");
+    private static void handleClientRequest(String content, InetAddress clientAddress, int clientPort) {
+        long start = System.nanoTime();
+        try {
+            lookup(content, clientAddress, clientPort);
+        } finally {
+            LOOKUP_TIMER.recordSince(start);
+        }
+    }
+
+    private static void lookup(String content, InetAddress clientAddress, int clientPort) {
         String principalCopyAddr = principalServerCopyAddr.get();
         if (principalCopyAddr == null) {
-            System.out.println("No principal server available to serve the client.");
+            LOOKUP_UNAVAILABLE.inc();
+            Log.warn("No principal server available to serve the client.");
             // Optionally send a "SERVER_UNAVAILABLE" message
             return;
         }
 
-        String principalClientAddr = serverMap.get(principalCopyAddr);
-        if (principalClientAddr == null) {
-            System.out.println("Principal server address mapping is inconsistent. No address for client.");
+        // read-only sessions may be served by a sufficiently fresh backup
+        String targetCopyAddr = principalCopyAddr;
+        if ("GET_READ_SERVER".equals(content)) {
+            LOOKUP_READ.inc();
+            targetCopyAddr = selectReadServer(principalCopyAddr);
+        }
+
+        byte[] response = clientReplies.get(targetCopyAddr);
+        if (response == null) {
+            Log.warn("Principal server address mapping is inconsistent. No address for client.");
             return;
         }
+        assignedSinceHeartbeat.computeIfAbsent(targetCopyAddr, k -> new AtomicInteger()).incrementAndGet();
 
-        Message responseMessage = new Message("DS_RESPONSE", principalClientAddr);
-        try (Udp dsResponseUdp = new Udp(clientAddress, clientPort)) {
-            dsResponseUdp.send(responseMessage);
-            System.out.println("Response sent to client " + clientAddress + ":" + clientPort + ": " + responseMessage.getContent());
-        } catch (IOException e) {
-            System.err.println("Error sending UDP response to client: " + e.getMessage());
+        reply(response, clientAddress, clientPort);
+        Log.debug("Response sent to client {}:{}: {}", clientAddress, clientPort, targetCopyAddr);
+    }
+
+    // Picks the least loaded backup whose replica is at most MAX_REPLICA_LAG_MS behind the principal,
+    // falling back to the principal when no backup is fresh enough.
+    private static String selectReadServer(String principalCopyAddr) {
+        long principalVersion = statusOf(principalCopyAddr).version();
+        String best = null;
+        int bestScore = Integer.MAX_VALUE;
+        for (String copyAddr : serverMap.keySet()) {
+            if (copyAddr.equals(principalCopyAddr)) continue;
+            ServerStatus status = serverStatus.get(copyAddr);
+            if (status == null || status.version() <= 0 || principalVersion - status.version() > MAX_REPLICA_LAG_MS) continue;
+            int score = status.loadScore(assignedCount(copyAddr));
+            if (score < bestScore) {
+                best = copyAddr;
+                bestScore = score;
+            }
         }
+        return best == null ? principalCopyAddr : best;
+    }
+
+    // Chooses a new principal among the remaining servers: the freshest replica wins
+    // (least data lost), ties are broken by the lowest load.
+    private static String selectNewPrincipal() {
+        String best = null;
+        ServerStatus bestStatus = null;
+        for (String copyAddr : serverMap.keySet()) {
+            ServerStatus status = statusOf(copyAddr);
+            if (best == null
+                    || status.version() > bestStatus.version()
+                    || (status.version() == bestStatus.version()
+                        && status.loadScore(assignedCount(copyAddr)) < bestStatus.loadScore(assignedCount(best)))) {
+                best = copyAddr;
+                bestStatus = status;
+            }
+        }
+        return best;
+    }
+
+    private static ServerStatus statusOf(String copyAddr) {
+        return serverStatus.getOrDefault(copyAddr, ServerStatus.UNKNOWN);
+    }
+
+    private static int assignedCount(String copyAddr) {
+        AtomicInteger assigned = assignedSinceHeartbeat.get(copyAddr);
+        return assigned == null ? 0 : assigned.get();
     }
 
     private static void handleServerRegister(String content, String sourceAddress, int sourcePort) {
         // content: clientAddress|copyAddress
         String[] addresses = content.split("\\|");
         if (addresses.length != 2) {
-            System.err.println("Invalid SERVER_REGISTER format: " + content);
+            Log.warn("Invalid SERVER_REGISTER format: {}", content);
             return;
         }
         String clientAddr = addresses[0];
@@ -120,29 +242,33 @@ public class DirectoryService {
 
         synchronized (serverMap) {
             if (!serverMap.containsKey(copyAddr)) {
-                serverMap.put(copyAddr, clientAddr);
-                lastSeen.put(copyAddr, System.currentTimeMillis());
-                System.out.println("Registered new server. Client: " + clientAddr + ", Copy: " + copyAddr);
+                putServer(copyAddr, clientAddr);
+                failureDetector.track(copyAddr);
+                Log.info("Registered new server. Client: {}, Copy: {}", clientAddr, copyAddr);
 
                 if (principalServerCopyAddr.get() == null) {
-                    principalServerCopyAddr.set(copyAddr);
-                    System.out.println("Promoted to PRINCIPAL: " + copyAddr);
+                    setPrincipal(copyAddr);
+                    Log.info("Promoted to PRINCIPAL: {}", copyAddr);
                     notifyBackupsOfNewPrincipal(copyAddr);
                 }
             } else {
                 // Refresh registration
-                lastSeen.put(copyAddr, System.currentTimeMillis());
-                serverMap.put(copyAddr, clientAddr); // Update client address in case it changed
-                System.out.println("Server re-registered (refresh): " + copyAddr);
+                failureDetector.track(copyAddr);
+                // Update client address in case it changed
+                if (!clientAddr.equals(serverMap.get(copyAddr))) {
+                    putServer(copyAddr, clientAddr);
+                }
+                Log.debug("Server re-registered (refresh): {}", copyAddr);
             }
         }
     }
 
-    private static void handleHeartbeat(String content, String sourceAddress, int sourcePort) {
-        // heartbeat content expected: version|clientPort|copyPort
-        String[] parts = content.split("\\|", 3);
+    private static void handleHeartbeat(String content, InetAddress source, String sourceAddress, int sourcePort) {
+        HEARTBEATS.inc();
+        // heartbeat content expected: version|clientPort|copyPort[|sessions|requestRate|queueDepth|cpuPercent]
+        String[] parts = content.split("\\|");
         if (parts.length < 3) {
-            System.err.println("Invalid HEARTBEAT format from " + sourceAddress + ":" + sourcePort);
+            Log.warn("Invalid HEARTBEAT format from {}:{}", sourceAddress, sourcePort);
             return;
         }
         String clientPort = parts[1];
@@ -151,102 +277,73 @@ public class DirectoryService {
         String copyAddr = sourceAddress + ":" + copyPort;
 
         synchronized (serverMap) {
-            lastSeen.put(copyAddr, System.currentTimeMillis());
+            failureDetector.heartbeat(copyAddr);
+            serverStatus.put(copyAddr, ServerStatus.parse(parts));
+            assignedSinceHeartbeat.remove(copyAddr);
             if (!serverMap.containsKey(copyAddr)) {
-                System.out.println("Heartbeat from unknown server, registering it: " + copyAddr);
+                Log.info("Heartbeat from unknown server, registering it: {}", copyAddr);
                 handleServerRegister(clientAddr + "|" + copyAddr, sourceAddress, sourcePort);
             }
         }
 
         // Reply to server with current principal's copy address
-        String principalCopy = principalServerCopyAddr.get();
-        Message dsResponse = new Message("DS_RESPONSE", principalCopy == null ? "" : principalCopy);
+        reply(heartbeatReply, source, sourcePort);
+    }
 
-        try (Udp dsResponseUdp = new Udp(sourceAddress, sourcePort)) {
-            dsResponseUdp.send(dsResponse);
-        } catch (IOException e) {
-            System.err.println("Error sending heartbeat reply to server " + copyAddr + ": " + e.getMessage());
-        }
+    private static void handleServerFailure(String copyAddr) {
+        Log.warn("Server {} stopped sending heartbeats. Removing.", copyAddr);
+        handleServerDeregister(copyAddr);
     }
 
     private static void handleServerDeregister(String copyAddr) {
         synchronized (serverMap) {
             if (serverMap.remove(copyAddr) == null) {
-                System.out.println("Deregister request for unknown server: " + copyAddr);
+                Log.warn("Deregister request for unknown server: {}", copyAddr);
                 return;
             }
 
-            lastSeen.remove(copyAddr);
-            System.out.println("Server deregistered: " + copyAddr);
+            clientReplies.remove(copyAddr);
+            journal.deregistered(copyAddr);
+            failureDetector.remove(copyAddr);
+            serverStatus.remove(copyAddr);
+            assignedSinceHeartbeat.remove(copyAddr);
+            Log.info("Server deregistered: {}", copyAddr);
 
             String currentPrincipal = principalServerCopyAddr.get();
             if (copyAddr.equals(currentPrincipal)) {
                 // Promote a new principal if available
-                String newPrincipal = serverMap.keys().asIterator().hasNext() ? serverMap.keys().asIterator().next() : null;
-                principalServerCopyAddr.set(newPrincipal);
+                String newPrincipal = selectNewPrincipal();
+                setPrincipal(newPrincipal);
                 if (newPrincipal != null) {
-                    System.out.println("Principal changed due to deregister. New principal: " + newPrincipal);
+                    Log.info("Principal changed due to deregister. New principal: {}", newPrincipal);
                     notifyBackupsOfNewPrincipal(newPrincipal);
                 } else {
-                    System.out.println("No principal available after deregister.");
+                    Log.warn("No principal available after deregister.");
                 }
             }
         }
     }
 
+    // one pre-encoded UPDATE_PRINCIPAL sent to every backup in a single pass over the DS socket
     public static void notifyBackupsOfNewPrincipal(String newPrincipalCopyAddr) {
-        List<String> backupCopyAddrs = new ArrayList<>(serverMap.keySet());
-        backupCopyAddrs.remove(newPrincipalCopyAddr);
-
-        if (backupCopyAddrs.isEmpty()) {
-            System.out.println("No backup servers to notify.");
+        int backups = serverMap.size() - (serverMap.containsKey(newPrincipalCopyAddr) ? 1 : 0);
+        if (backups <= 0) {
+            Log.debug("No backup servers to notify.");
             return;
         }
 
-        System.out.println("Notifying " + backupCopyAddrs.size() + " backup server(s) of new principal: " + newPrincipalCopyAddr);
-        Message updateMsg = new Message("UPDATE_PRINCIPAL", newPrincipalCopyAddr);
+        Log.info("Notifying {} backup server(s) of new principal: {}", backups, newPrincipalCopyAddr);
+        byte[] updateMsg = encodeReply("UPDATE_PRINCIPAL", newPrincipalCopyAddr);
 
-        for (String backupCopyAddr : backupCopyAddrs) {
+        for (String backupCopyAddr : serverMap.keySet()) {
+            if (backupCopyAddr.equals(newPrincipalCopyAddr)) continue;
             try {
-                String[] parts = backupCopyAddr.split(":");
-                String host = parts[0];
-                int port = Integer.parseInt(parts[1]);
-                try (Udp udp = new Udp(host, port)) {
-                    udp.send(updateMsg);
-                }
-            } catch (IOException | NumberFormatException e) {
-                System.err.println("Failed to notify backup server " + backupCopyAddr + ": " + e.getMessage());
-            }
-        }
-    }
-
-    static class TimeCheckThread implements Runnable {
-        private final ConcurrentHashMap<String, String> serverMap;
-        private final ConcurrentHashMap<String, Long> lastSeen;
-        private final AtomicReference<String> principalServerCopyAddr;
-        private static final long STALE_THRESHOLD = 15000; // 15 seconds
-
-        public TimeCheckThread(ConcurrentHashMap<String, String> serverMap, ConcurrentHashMap<String, Long> lastSeen, AtomicReference<String> principalServerCopyAddr) {
-            this.serverMap = serverMap;
-            this.lastSeen = lastSeen;
-            this.principalServerCopyAddr = principalServerCopyAddr;
-        }
-
-        @Override
-        public void run() {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    Thread.sleep(STALE_THRESHOLD / 2);
-                    long now = System.currentTimeMillis();
-                    lastSeen.forEach((copyAddr, time) -> {
-                        if (now - time > STALE_THRESHOLD) {
-                            System.out.println("Server " + copyAddr + " is stale. Removing.");
-                            handleServerDeregister(copyAddr);
-                        }
-                    });
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
+                int sep = backupCopyAddr.lastIndexOf(':');
+                InetAddress host = InetAddress.getByName(backupCopyAddr.substring(0, sep));
+                int port = Integer.parseInt(backupCopyAddr.substring(sep + 1));
+                reply(updateMsg, host, port);
+            } catch (IOException | NumberFormatException | StringIndexOutOfBoundsException e) {
+                Log.warn("Failed to notify backup server {}: {}", backupCopyAddr, e.getMessage());
             }
         }
     }
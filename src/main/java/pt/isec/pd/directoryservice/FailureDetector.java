@@ -0,0 +1,185 @@
+package pt.isec.pd.directoryservice;
+
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.TimerWheel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+// Phi-accrual failure detector (Hayashibara et al.). For each server the inter-arrival times of
+// its heartbeats are kept in a small window; phi expresses how unlikely the current silence is
+// given that history. Instead of scanning all servers periodically, every heartbeat (re)arms one
+// timer on a timing wheel for the instant at which phi would cross the threshold.
+public class FailureDetector {
+    private static final int WINDOW = 100;
+
+    private final double phiThreshold;
+    private final long expectedIntervalMs;
+    private final long minStdDevMs;
+    private final long acceptablePauseMs;
+    private final long maxDetectionMs;
+    private final Consumer<String> onFailure;
+    private final LongSupplier clockMs;
+    private final TimerWheel wheel;
+    private final ConcurrentHashMap<String, History> histories = new ConcurrentHashMap<>();
+
+    // Defaults tolerate one lost heartbeat and detect a dead server in about 13 s (at most 15 s);
+    // lowering pd.heartbeat.intervalMs on servers and DS shortens detection proportionally.
+    public FailureDetector(Consumer<String> onFailure) {
+        this(onFailure,
+                Double.parseDouble(System.getProperty("pd.ds.phiThreshold", "8")),
+                Long.getLong("pd.heartbeat.intervalMs", 5000),
+                Long.getLong("pd.ds.acceptablePauseMs", Long.getLong("pd.heartbeat.intervalMs", 5000)),
+                Long.getLong("pd.ds.maxDetectionMs", 15000));
+    }
+
+    public FailureDetector(Consumer<String> onFailure, double phiThreshold, long expectedIntervalMs,
+                           long acceptablePauseMs, long maxDetectionMs) {
+        this(onFailure, phiThreshold, expectedIntervalMs, acceptablePauseMs, maxDetectionMs,
+                System::currentTimeMillis, new TimerWheel("ds-failure-detector", 100, 512));
+    }
+
+    // clockMs and wheel are injectable so tests can run on a simulated clock
+    FailureDetector(Consumer<String> onFailure, double phiThreshold, long expectedIntervalMs,
+                    long acceptablePauseMs, long maxDetectionMs, LongSupplier clockMs, TimerWheel wheel) {
+        this.onFailure = onFailure;
+        this.clockMs = clockMs;
+        this.wheel = wheel;
+        this.phiThreshold = phiThreshold;
+        this.expectedIntervalMs = expectedIntervalMs;
+        this.minStdDevMs = Math.max(100, expectedIntervalMs / 10);
+        this.acceptablePauseMs = acceptablePauseMs;
+        this.maxDetectionMs = maxDetectionMs;
+        Log.info("[FailureDetector] phi threshold {}, expected interval {} ms, max detection {} ms",
+                phiThreshold, expectedIntervalMs, maxDetectionMs);
+    }
+
+    public void heartbeat(String copyAddr) {
+        long now = clockMs.getAsLong();
+        History h = histories.computeIfAbsent(copyAddr, k -> new History(expectedIntervalMs));
+        synchronized (h) {
+            if (h.lastArrival > 0) {
+                h.add(now - h.lastArrival);
+            }
+            h.lastArrival = now;
+            arm(copyAddr, h, now);
+        }
+    }
+
+    // Starts monitoring a server (e.g. on registration) without recording an inter-arrival sample
+    public void track(String copyAddr) {
+        long now = clockMs.getAsLong();
+        History h = histories.computeIfAbsent(copyAddr, k -> new History(expectedIntervalMs));
+        synchronized (h) {
+            if (h.lastArrival == 0) {
+                h.lastArrival = now;
+                arm(copyAddr, h, now);
+            }
+        }
+    }
+
+    public void remove(String copyAddr) {
+        History h = histories.remove(copyAddr);
+        if (h != null) {
+            synchronized (h) {
+                if (h.timeout != null) h.timeout.cancel();
+            }
+        }
+    }
+
+    public double phi(String copyAddr) {
+        History h = histories.get(copyAddr);
+        if (h == null) return 0;
+        synchronized (h) {
+            return phi(h, clockMs.getAsLong() - h.lastArrival);
+        }
+    }
+
+    public void close() {
+        wheel.close();
+    }
+
+    // must hold the history's lock
+    private void arm(String copyAddr, History h, long now) {
+        if (h.timeout != null) h.timeout.cancel();
+        long delay = Math.max(0, h.lastArrival + detectionDelay(h) - now);
+        h.timeout = wheel.schedule(delay, () -> check(copyAddr, h));
+    }
+
+    private void check(String copyAddr, History h) {
+        synchronized (h) {
+            if (histories.get(copyAddr) != h) return; // removed or replaced meanwhile
+            long now = clockMs.getAsLong();
+            long silence = now - h.lastArrival;
+            if (silence < maxDetectionMs && phi(h, silence) < phiThreshold) {
+                arm(copyAddr, h, now); // a heartbeat arrived late in the window, look again later
+                return;
+            }
+            histories.remove(copyAddr, h);
+            Log.warn("[FailureDetector] Server {} suspected after {} ms of silence", copyAddr, silence);
+        }
+        onFailure.accept(copyAddr);
+    }
+
+    // silence after which phi reaches the threshold, capped by maxDetectionMs
+    private long detectionDelay(History h) {
+        double lo = 0, hi = maxDetectionMs;
+        if (phi(h, (long) hi) < phiThreshold) return maxDetectionMs;
+        for (int i = 0; i < 30 && hi - lo > 1; i++) {
+            double mid = (lo + hi) / 2;
+            if (phi(h, (long) mid) >= phiThreshold) hi = mid; else lo = mid;
+        }
+        return (long) Math.ceil(hi);
+    }
+
+    private double phi(History h, long silenceMs) {
+        double mean = h.mean() + acceptablePauseMs;
+        double stdDev = Math.max(minStdDevMs, h.stdDev());
+        // logistic approximation of the normal CDF, as used by Akka's implementation
+        double y = (silenceMs - mean) / stdDev;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (silenceMs > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    private static final class History {
+        private final long[] intervals = new long[WINDOW];
+        private int count;
+        private int next;
+        private double sum;
+        private double sumSquares;
+        long lastArrival;
+        TimerWheel.Timeout timeout;
+
+        History(long expectedIntervalMs) {
+            // seed with the nominal interval so the first detections are sensible
+            add(expectedIntervalMs);
+        }
+
+        void add(long interval) {
+            if (count == WINDOW) {
+                long old = intervals[next];
+                sum -= old;
+                sumSquares -= (double) old * old;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW;
+            sum += interval;
+            sumSquares += (double) interval * interval;
+        }
+
+        double mean() {
+            return sum / count;
+        }
+
+        double stdDev() {
+            double mean = mean();
+            return Math.sqrt(Math.max(0, sumSquares / count - mean * mean));
+        }
+    }
+}
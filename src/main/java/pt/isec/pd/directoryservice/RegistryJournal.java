@@ -0,0 +1,114 @@
+package pt.isec.pd.directoryservice;
+
+import pt.isec.pd.utils.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Persists the DS registry so a restarted DS can answer lookups immediately.
+// Every change is appended to a journal; once the journal grows past COMPACT_AFTER records the
+// whole registry is written to a snapshot file and the journal starts over.
+// Records (one per line): "R <copyAddr> <clientAddr>", "D <copyAddr>", "P <copyAddr>|-"
+public class RegistryJournal {
+    private static final int COMPACT_AFTER = 500;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Map<String, String> serverMap;
+    private final AtomicReference<String> principal;
+    private BufferedWriter journal;
+    private int records;
+
+    public RegistryJournal(String basePath, Map<String, String> serverMap, AtomicReference<String> principal) {
+        this.snapshotFile = Path.of(basePath + ".snapshot");
+        this.journalFile = Path.of(basePath + ".journal");
+        this.serverMap = serverMap;
+        this.principal = principal;
+    }
+
+    // Loads snapshot + journal into the registry and opens the journal for appending
+    public synchronized void restore() throws IOException {
+        Path parent = journalFile.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+
+        replay(snapshotFile);
+        records = replay(journalFile);
+        journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private int replay(Path file) throws IOException {
+        if (!Files.exists(file)) return 0;
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.split(" ");
+                switch (f[0]) {
+                    case "R" -> { if (f.length == 3) serverMap.put(f[1], f[2]); }
+                    case "D" -> { if (f.length == 2) serverMap.remove(f[1]); }
+                    case "P" -> { if (f.length == 2) principal.set("-".equals(f[1]) ? null : f[1]); }
+                    default -> { continue; } // ignore a torn last line
+                }
+                count++;
+            }
+        }
+        // a principal that was removed later in the log is not a principal anymore
+        String p = principal.get();
+        if (p != null && !serverMap.containsKey(p)) principal.set(null);
+        return count;
+    }
+
+    public synchronized void registered(String copyAddr, String clientAddr) {
+        append("R " + copyAddr + " " + clientAddr);
+    }
+
+    public synchronized void deregistered(String copyAddr) {
+        append("D " + copyAddr);
+    }
+
+    public synchronized void principalChanged(String copyAddr) {
+        append("P " + (copyAddr == null ? "-" : copyAddr));
+    }
+
+    private void append(String record) {
+        if (journal == null) return;
+        try {
+            journal.write(record);
+            journal.newLine();
+            journal.flush();
+            if (++records >= COMPACT_AFTER) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.error("[RegistryJournal] Failed to persist registry change: {}", e.getMessage());
+        }
+    }
+
+    private void compact() throws IOException {
+        Path tmp = Path.of(snapshotFile + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> e : serverMap.entrySet()) {
+                out.write("R " + e.getKey() + " " + e.getValue());
+                out.newLine();
+            }
+            String p = principal.get();
+            out.write("P " + (p == null ? "-" : p));
+            out.newLine();
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        journal.close();
+        journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        records = 0;
+    }
+}
@@ -0,0 +1,30 @@
+package pt.isec.pd.directoryservice;
+
+// Last state advertised by a server in its heartbeat:
+// version|clientPort|copyPort|sessions|requestRate|queueDepth|cpuPercent
+record ServerStatus(long version, int sessions, int requestRate, int queueDepth, int cpuPercent) {
+    static final ServerStatus UNKNOWN = new ServerStatus(0, 0, 0, 0, 0);
+
+    // Parses the heartbeat payload; servers that don't send load indicators count as idle.
+    static ServerStatus parse(String[] parts) {
+        try {
+            long version = Long.parseLong(parts[0]);
+            if (parts.length < 7) {
+                return new ServerStatus(version, 0, 0, 0, 0);
+            }
+            return new ServerStatus(version,
+                    Integer.parseInt(parts[3]),
+                    Integer.parseInt(parts[4]),
+                    Integer.parseInt(parts[5]),
+                    Integer.parseInt(parts[6]));
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+
+    // Lower is better. `assigned` counts clients sent to the server since its last heartbeat,
+    // so a burst of lookups (e.g. after a failover) spreads instead of piling on one server.
+    int loadScore(int assigned) {
+        return (sessions + assigned) * 10 + requestRate + queueDepth * 20 + cpuPercent * 5;
+    }
+}
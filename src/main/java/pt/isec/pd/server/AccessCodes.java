@@ -0,0 +1,102 @@
+package pt.isec.pd.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+// Short question access codes without retrying on the UNIQUE constraint.
+// A sequence number is scrambled by a bijection on 30 bits (odd multiply, xor-shift, odd multiply)
+// and written as 6 Crockford base32 characters, so distinct numbers always give distinct,
+// non-sequential codes. The next number is recovered from the codes already in the DB (the
+// scramble is reversible), so nothing extra has to be persisted or replicated; the in-memory set
+// only guards against codes that were not produced by this scheme.
+public final class AccessCodes {
+    private static final String ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ";
+    private static final int BITS = 30;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final long MULTIPLIER = 0x2C1B3C6DL; // odd, so invertible mod 2^30
+    private static final long INVERSE = inverse(MULTIPLIER);
+    static final int LENGTH = BITS / 5;
+
+    private static Set<String> used;
+    private static long next;
+
+    private AccessCodes() { }
+
+    // Returns a code that is not in use; the caller inserts it in the same transaction
+    public static synchronized String next(Connection c) throws SQLException {
+        if (used == null) load(c);
+        String code;
+        do {
+            code = encode(scramble(next++ & MASK));
+        } while (!used.add(code));
+        return code;
+    }
+
+    // Forget the loaded state (the DB was replaced by a copy); reloaded on next use
+    public static synchronized void reset() {
+        used = null;
+    }
+
+    private static void load(Connection c) throws SQLException {
+        Set<String> codes = new HashSet<>();
+        long max = -1;
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT access_code FROM Question")) {
+            while (rs.next()) {
+                String code = rs.getString(1);
+                codes.add(code);
+                long seq = decode(code);
+                if (seq > max) max = seq;
+            }
+        }
+        used = codes;
+        // 0 would encode as "000000"; archived questions take their codes with them, but question ids
+        // never go back and one code is drawn per question, so the last id is a floor for the sequence
+        next = Math.max(Math.max(1, max + 1), QuestionsRepository.lastQuestionId(c) + 1);
+    }
+
+    static long scramble(long x) {
+        x = (x * MULTIPLIER) & MASK;
+        x ^= x >>> 15; // self-inverse on 30 bits
+        return (x * MULTIPLIER) & MASK;
+    }
+
+    static long unscramble(long x) {
+        x = (x * INVERSE) & MASK;
+        x ^= x >>> 15;
+        return (x * INVERSE) & MASK;
+    }
+
+    static String encode(long value) {
+        char[] out = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            out[i] = ALPHABET.charAt((int) (value & 31));
+            value >>>= 5;
+        }
+        return new String(out);
+    }
+
+    // Sequence number behind a generated code, or -1 if the code wasn't generated by this scheme
+    static long decode(String code) {
+        if (code == null || code.length() != LENGTH) return -1;
+        long value = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            int digit = ALPHABET.indexOf(code.charAt(i));
+            if (digit < 0) return -1;
+            value = (value << 5) | digit;
+        }
+        return unscramble(value);
+    }
+
+    private static long inverse(long a) {
+        long x = a; // Newton iteration: each step doubles the correct low bits
+        for (int i = 0; i < 5; i++) {
+            x = (x * (2 - a * x)) & MASK;
+        }
+        return x;
+    }
+}
@@ -0,0 +1,85 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.Metrics;
+import pt.isec.pd.utils.TokenBucket;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+// Admission control for expensive requests: a DB round trip plus a PBKDF2 hash, a bulk import or a
+// statistics rebuild.
+// Each remote address and each account gets its own token bucket, and a global semaphore caps
+// how many expensive requests run at once. Anything over the limits is refused immediately.
+//   pd.limit.addressRate / pd.limit.addressBurst   per remote address (default 5/s, burst 10)
+//   pd.limit.accountRate / pd.limit.accountBurst   per account email (default 1/s, burst 5)
+//   pd.limit.maxExpensive                          concurrent expensive requests (default 2 per core)
+public final class AdmissionControl {
+    private static final Set<String> EXPENSIVE = Set.of("AUTH_REQUEST", "REGISTER_REQUEST", "UPDATE_PROFILE_REQUEST",
+            "BULK_IMPORT_STUDENTS", "REBUILD_STATS");
+
+    private static final double ADDRESS_RATE = Double.parseDouble(System.getProperty("pd.limit.addressRate", "5"));
+    private static final double ADDRESS_BURST = Double.parseDouble(System.getProperty("pd.limit.addressBurst", "10"));
+    private static final double ACCOUNT_RATE = Double.parseDouble(System.getProperty("pd.limit.accountRate", "1"));
+    private static final double ACCOUNT_BURST = Double.parseDouble(System.getProperty("pd.limit.accountBurst", "5"));
+    private static final Semaphore expensive = new Semaphore(
+            Integer.getInteger("pd.limit.maxExpensive", Runtime.getRuntime().availableProcessors() * 2));
+
+    // buckets idle for this long are full again and can be dropped
+    private static final long IDLE_NANOS = 60_000_000_000L;
+    private static final int SWEEP_ABOVE = 10_000;
+
+    private static final ConcurrentHashMap<String, Limiter> byAddress = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Limiter> byAccount = new ConcurrentHashMap<>();
+
+    private static final Metrics.Counter LIMITED_ADDRESS = Metrics.counter("admission.limited.address");
+    private static final Metrics.Counter LIMITED_ACCOUNT = Metrics.counter("admission.limited.account");
+    private static final Metrics.Counter LIMITED_BUSY = Metrics.counter("admission.limited.busy");
+
+    private AdmissionControl() { }
+
+    public static boolean isExpensive(String type) {
+        return EXPENSIVE.contains(type);
+    }
+
+    // Returns null when the request may run (and must then be followed by release()),
+    // otherwise the reason it was refused
+    public static String tryAdmit(String address, String account) {
+        if (!take(byAddress, address, ADDRESS_RATE, ADDRESS_BURST)) {
+            LIMITED_ADDRESS.inc();
+            return "Too many requests from this address, slow down";
+        }
+        if (account != null && !account.isBlank() && !take(byAccount, account.trim().toLowerCase(), ACCOUNT_RATE, ACCOUNT_BURST)) {
+            LIMITED_ACCOUNT.inc();
+            return "Too many attempts for this account, try again later";
+        }
+        if (!expensive.tryAcquire()) {
+            LIMITED_BUSY.inc();
+            return "Server is busy, try again later";
+        }
+        return null;
+    }
+
+    public static void release() {
+        expensive.release();
+    }
+
+    private static boolean take(ConcurrentHashMap<String, Limiter> map, String key, double rate, double burst) {
+        long now = System.nanoTime();
+        if (map.size() > SWEEP_ABOVE) {
+            map.values().removeIf(l -> now - l.lastUsed > IDLE_NANOS);
+        }
+        Limiter limiter = map.computeIfAbsent(key, k -> new Limiter(new TokenBucket(rate, burst)));
+        limiter.lastUsed = now;
+        return limiter.bucket.tryAcquire(1);
+    }
+
+    private static final class Limiter {
+        final TokenBucket bucket;
+        volatile long lastUsed;
+
+        Limiter(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+
+// Moves questions that closed more than pd.archive.maxAgeDays ago (default 365, 0 disables), with their
+// options, answers and stats, into a separate SQLite file (pd.archive.db, default <db>-archive.db next
+// to the hot DB), then gives the freed pages back with PRAGMA incremental_vacuum, a few MB per step, so
+// full copies to the backups shrink without writers waiting on one long VACUUM.
+// The archive has the same columns plus the teachers/students its rows refer to (without password
+// hashes), so it can be opened on its own; ARCHIVE_REPORT_REQUEST reports on it (see ReportEngine).
+// Every server keeps its own archive file: backups receive the principal's right after the DB copy
+// (see SendDataBaseCopy), so a promoted backup still has the archived questions.
+// Each batch is copied with INSERT OR REPLACE before it is deleted, so a run interrupted between the
+// two files is simply repeated. Runs every pd.archive.intervalHours (24), on the principal only.
+public class ArchiveJob implements Runnable {
+    private static final long MAX_AGE_DAYS = Long.getLong("pd.archive.maxAgeDays", 365);
+    private static final long INTERVAL_MS = Long.getLong("pd.archive.intervalHours", 24) * 3_600_000L;
+    // questions moved per transaction, so client writes are not blocked for long
+    private static final int BATCH = Integer.getInteger("pd.archive.batch", 200);
+    // pages freed per incremental vacuum step (one short write transaction each)
+    private static final int VACUUM_PAGES = 1024;
+
+    private static final Metrics.Counter ARCHIVED = Metrics.counter("archive.questions");
+    private static final Metrics.Histogram RUN = Metrics.timer("archive.run");
+
+    private static final String[] ARCHIVE_SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS archive.Docentes (id_teacher INTEGER PRIMARY KEY, name TEXT, email TEXT)",
+        "CREATE TABLE IF NOT EXISTS archive.Student (id_student INTEGER PRIMARY KEY, student_number TEXT, name TEXT, email TEXT)",
+        "CREATE TABLE IF NOT EXISTS archive.Question (id_question INTEGER PRIMARY KEY, teacher_id INTEGER, question_text TEXT,"
+                + " access_code TEXT, start_datetime TEXT, end_datetime TEXT)",
+        "CREATE TABLE IF NOT EXISTS archive.Option (id_option INTEGER PRIMARY KEY, question_id INTEGER, identifier TEXT,"
+                + " option_text TEXT, is_correct BOOLEAN)",
+        "CREATE TABLE IF NOT EXISTS archive.Answer (id_answer INTEGER PRIMARY KEY, student_id INTEGER, question_id INTEGER,"
+                + " selected_option TEXT, realized_at DATETIME)",
+        "CREATE TABLE IF NOT EXISTS archive.QuestionStats (question_id INTEGER PRIMARY KEY, teacher_id INTEGER,"
+                + " answers INTEGER, correct INTEGER)",
+        "CREATE INDEX IF NOT EXISTS archive.idx_archive_question_teacher ON Question (teacher_id)",
+        "CREATE INDEX IF NOT EXISTS archive.idx_archive_answer_question ON Answer (question_id)"
+    };
+
+    // copy first, then delete children before parents (foreign keys are on)
+    private static final String[] MOVE_BATCH = {
+        "INSERT OR REPLACE INTO archive.Docentes (id_teacher, name, email)"
+                + " SELECT id_teacher, name, email FROM Docentes WHERE id_teacher IN"
+                + " (SELECT teacher_id FROM Question WHERE id_question IN (SELECT id FROM temp.archive_batch))",
+        "INSERT OR REPLACE INTO archive.Student (id_student, student_number, name, email)"
+                + " SELECT id_student, student_number, name, email FROM Student WHERE id_student IN"
+                + " (SELECT student_id FROM Answer WHERE question_id IN (SELECT id FROM temp.archive_batch))",
+        "INSERT OR REPLACE INTO archive.Question (id_question, teacher_id, question_text, access_code, start_datetime, end_datetime)"
+                + " SELECT id_question, teacher_id, question_text, access_code, start_datetime, end_datetime"
+                + " FROM Question WHERE id_question IN (SELECT id FROM temp.archive_batch)",
+        "INSERT OR REPLACE INTO archive.Option (id_option, question_id, identifier, option_text, is_correct)"
+                + " SELECT id_option, question_id, identifier, option_text, is_correct"
+                + " FROM Option WHERE question_id IN (SELECT id FROM temp.archive_batch)",
+        "INSERT OR REPLACE INTO archive.Answer (id_answer, student_id, question_id, selected_option, realized_at)"
+                + " SELECT id_answer, student_id, question_id, selected_option, realized_at"
+                + " FROM Answer WHERE question_id IN (SELECT id FROM temp.archive_batch)",
+        "INSERT OR REPLACE INTO archive.QuestionStats (question_id, teacher_id, answers, correct)"
+                + " SELECT question_id, teacher_id, answers, correct"
+                + " FROM QuestionStats WHERE question_id IN (SELECT id FROM temp.archive_batch)",
+        "DELETE FROM Answer WHERE question_id IN (SELECT id FROM temp.archive_batch)",
+        "DELETE FROM Option WHERE question_id IN (SELECT id FROM temp.archive_batch)",
+        "DELETE FROM Question WHERE id_question IN (SELECT id FROM temp.archive_batch)"
+    };
+
+    public static boolean enabled() {
+        return MAX_AGE_DAYS > 0;
+    }
+
+    public static String archiveFile() {
+        String configured = System.getProperty("pd.archive.db");
+        if (configured != null && !configured.isBlank()) return configured;
+        String hot = ConnectDB.getDatabaseFile();
+        return hot.endsWith(".db") ? hot.substring(0, hot.length() - 3) + "-archive.db" : hot + "-archive";
+    }
+
+    // Timestamp of the archive file, 0 when there is none; backups keep the principal's (see BackupConnector)
+    public static long archiveVersion() {
+        File f = new File(archiveFile());
+        return f.exists() ? f.lastModified() : 0;
+    }
+
+    // Copies the archive next to itself while no run is writing it, keeping its timestamp, for
+    // replication; returns null when there is no archive. The caller deletes the copy.
+    static synchronized Path copyArchive() throws IOException {
+        Path file = Path.of(archiveFile()).toAbsolutePath();
+        if (!Files.exists(file)) return null;
+        Path copy = Files.createTempFile(file.getParent(), "archive-", ".tmp");
+        try {
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        } catch (IOException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+        return copy;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (!ReplicaState.isPrincipal()) continue; // backups get the result through the next copy
+            try {
+                archive(LocalDateTime.now().minusDays(MAX_AGE_DAYS));
+            } catch (SQLException e) {
+                Log.error("[Archive] Run failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Archives every question that ended before the cutoff; returns how many were moved
+    public static synchronized int archive(LocalDateTime cutoff) throws SQLException {
+        long start = System.nanoTime();
+        int moved = 0;
+        String file = Path.of(archiveFile()).toAbsolutePath().toString();
+        try (Connection c = ConnectDB.getConnection();
+             Statement st = c.createStatement()) {
+            try (PreparedStatement attach = c.prepareStatement("ATTACH DATABASE ? AS archive")) {
+                attach.setString(1, file);
+                attach.execute();
+            }
+            try {
+                for (String sql : ARCHIVE_SCHEMA) {
+                    st.execute(sql);
+                }
+                st.execute("CREATE TEMP TABLE IF NOT EXISTS archive_batch (id INTEGER PRIMARY KEY)");
+
+                try (PreparedStatement select = c.prepareStatement(
+                        "INSERT INTO temp.archive_batch (id) SELECT id_question FROM Question"
+                                + " WHERE end_datetime < ? ORDER BY id_question LIMIT ?")) {
+                    select.setString(1, cutoff.format(QuestionsRepository.DB_DATETIME));
+                    select.setInt(2, BATCH);
+                    while (true) {
+                        c.setAutoCommit(false);
+                        try {
+                            st.executeUpdate("DELETE FROM temp.archive_batch");
+                            int batch = select.executeUpdate();
+                            if (batch == 0) {
+                                c.commit();
+                                break;
+                            }
+                            for (String sql : MOVE_BATCH) {
+                                st.executeUpdate(sql);
+                            }
+                            c.commit();
+                            moved += batch;
+                            ARCHIVED.add(batch);
+                            // the rows are gone from the hot DB now, even if a later batch or the vacuum fails
+                            AccessCodes.reset();
+                            ResultCache.clear();
+                        } catch (SQLException e) {
+                            c.rollback();
+                            throw e;
+                        } finally {
+                            c.setAutoCommit(true);
+                        }
+                    }
+                }
+            } finally {
+                st.execute("DETACH DATABASE archive");
+            }
+            if (moved > 0) {
+                shrink(st);
+            }
+        } finally {
+            RUN.recordSince(start);
+        }
+        if (moved > 0) {
+            Log.info("[Archive] Moved {} question(s) to {} in {} ms", moved, file, (System.nanoTime() - start) / 1_000_000);
+        }
+        return moved;
+    }
+
+    // Gives the free pages back so the file (and every full copy) shrinks; stops early if a step
+    // frees nothing (the DB is not in incremental auto_vacuum mode, see DBSchema)
+    private static void shrink(Statement st) throws SQLException {
+        long free = freePages(st);
+        while (free > 0) {
+            st.executeUpdate("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")"); // execute() would run one page only
+            long left = freePages(st);
+            if (left >= free) break;
+            free = left;
+        }
+    }
+
+    private static long freePages(Statement st) throws SQLException {
+        try (ResultSet rs = st.executeQuery("PRAGMA freelist_count")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
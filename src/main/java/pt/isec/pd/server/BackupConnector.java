@@ -1,17 +1,37 @@
 package pt.isec.pd.server;
 
 import pt.isec.pd.common.Message;
-import pt.isec.pd.sockets.Tcp;
+import pt.isec.pd.utils.Log;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class BackupConnector {
     private final AtomicReference<Thread> connectorThread = new AtomicReference<>(null);
     private volatile Socket activeSocket = null;
+    private final String dbFilePath;
+
+    public BackupConnector(String dbFilePath) {
+        this.dbFilePath = dbFilePath;
+    }
+
+    // Called by the heartbeat listener when the principal advertises a newer version.
+    // A copy already in progress will bring the replica up to date, so it is not restarted.
+    public void catchUp(String principalAddress) {
+        if (principalAddress == null) return;
+        Thread t = connectorThread.get();
+        if (t != null && t.isAlive()) return;
+        Log.info("[BackupConnector] Replica behind principal, catching up from {}", principalAddress);
+        connectToPrincipal(principalAddress);
+    }
 
     public void connectToPrincipal(String principalAddress) {
         Thread t = connectorThread.get();
@@ -30,28 +50,47 @@ public class BackupConnector {
 
                 try (Socket s = new Socket(host, port)) {
                     activeSocket = s;
-                    System.out.println("[BackupConnector] Connected to principal " + principalAddress);
+                    Log.info("[BackupConnector] Connected to principal {}", principalAddress);
                     ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
                     out.flush();
                     ObjectInputStream in = new ObjectInputStream(s.getInputStream());
 
-                    // request DB copy
-                    out.writeObject(new Message("DB_COPY_REQUEST", ""));
+                    // request DB copy, sending the versions we already hold (DB and archive) so the principal can skip the transfers
+                    out.writeObject(new Message("DB_COPY_REQUEST", ReplicaState.getReplicatedVersion() + "|" + ArchiveJob.archiveVersion()));
                     out.flush();
 
-                    // Expect a Message("DB_COPY_START", version) then a byte[] file
+                    // Expect a Message("DB_COPY_START", version|size) followed by the raw file bytes,
+                    // or Message("DB_COPY_UP_TO_DATE", version) when nothing changed
                     Object o = in.readObject();
                     if (o instanceof Message start && "DB_COPY_START".equals(start.getType())) {
-                        Object fileObj = in.readObject();
-                        if (fileObj instanceof byte[] data) {
-                            // store received bytes to local DB file (implementation minimal)
-                            // save to same path used by server - omitted here for brevity (could be added)
-                            System.out.println("[BackupConnector] Received DB copy (" + data.length + " bytes) version=" + start.getContent());
+                        String[] header = start.getContent().split("\\|", 2);
+                        long version = parseVersion(header[0]);
+                        long size = header.length > 1 ? parseVersion(header[1]) : 0;
+                        if (version == 0) {
+                            Log.info("[BackupConnector] Principal has no database yet, keeping local copy");
+                        } else {
+                            storeCopy(in, size, version);
+                            Log.info("[BackupConnector] Received DB copy ({} bytes) version={}", size, version);
+                        }
+                    } else if (o instanceof Message upToDate && "DB_COPY_UP_TO_DATE".equals(upToDate.getType())) {
+                        ReplicaState.setReplicatedVersion(parseVersion(upToDate.getContent()));
+                        Log.info("[BackupConnector] Replica already up to date, version={}", upToDate.getContent());
+                    }
+
+                    // then the archive: Message("ARCHIVE_COPY_START", version|size) and its bytes, or ARCHIVE_UP_TO_DATE
+                    o = in.readObject();
+                    if (o instanceof Message start && "ARCHIVE_COPY_START".equals(start.getType())) {
+                        String[] header = start.getContent().split("\\|", 2);
+                        long version = parseVersion(header[0]);
+                        long size = header.length > 1 ? parseVersion(header[1]) : 0;
+                        if (version != 0) {
+                            receiveFile(in, size, version, Path.of(ArchiveJob.archiveFile()).toAbsolutePath());
+                            Log.info("[BackupConnector] Received archive ({} bytes) version={}", size, version);
                         }
                     }
                     return;
                 } catch (IOException | ClassNotFoundException e) {
-                    System.err.println("[BackupConnector] Could not connect/receive from principal " + principalAddress + ": " + e.getMessage());
+                    Log.warn("[BackupConnector] Could not connect/receive from principal {}: {}", principalAddress, e.getMessage());
                     try { Thread.sleep(3000); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); break; }
                 }
             }
@@ -63,6 +102,50 @@ public class BackupConnector {
         newThread.start();
     }
 
+    private void storeCopy(ObjectInputStream in, long size, long version) throws IOException {
+        receiveFile(in, size, version, Path.of(dbFilePath).toAbsolutePath());
+        // accounts, questions and the session key may have changed on the principal
+        UserCache.clear();
+        SessionTokens.reset();
+        AccessCodes.reset();
+        ResultCache.clear();
+        QuestionScheduler.load();
+        ReplicaState.setReplicatedVersion(version);
+    }
+
+    private static void receiveFile(ObjectInputStream in, long size, long version, Path target) throws IOException {
+        Path parent = target.getParent();
+        if (parent != null) Files.createDirectories(parent);
+
+        // write next to the live file and swap it in, so readers never see a partial database
+        Path tmp = Files.createTempFile(parent, "replica-", ".tmp");
+        try {
+            try (OutputStream fileOut = Files.newOutputStream(tmp)) {
+                byte[] chunk = new byte[ReplicationScheduler.CHUNK_SIZE];
+                long remaining = size;
+                while (remaining > 0) {
+                    int len = (int) Math.min(chunk.length, remaining);
+                    in.readFully(chunk, 0, len);
+                    fileOut.write(chunk, 0, len);
+                    remaining -= len;
+                }
+            }
+            // keep the principal's version as the file timestamp so heartbeats advertise it
+            Files.setLastModifiedTime(tmp, FileTime.fromMillis(version));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static long parseVersion(String content) {
+        try {
+            return Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     public void disconnect() {
         Thread t = connectorThread.getAndSet(null);
         if (t != null) t.interrupt();
@@ -2,17 +2,87 @@
 package pt.isec.pd.server;
 
 import pt.isec.pd.common.Message;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+import pt.isec.pd.utils.RequestTrace;
 
 import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
 import java.net.Socket;
 import java.net.SocketException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClientHandler extends Thread {
+    // requests that change the database; only the principal serves them
+    private static final Set<String> WRITE_REQUESTS = Set.of("REGISTER_REQUEST", "UPDATE_PROFILE_REQUEST",
+            "CREATE_QUESTION", "CREATE_QUESTIONS_BATCH", "EDIT_QUESTION", "SUBMIT_ANSWER",
+            "BULK_IMPORT_STUDENTS", "REBUILD_STATS", "DELETE_QUESTION");
+    // request type -> pipeline stage it runs on and its handler
+    private static final Map<String, Route> ROUTES = Map.ofEntries(
+            Map.entry("REGISTER_REQUEST", new Route(RequestPipeline.Stage.CPU, ClientHandler::handleRegister)),
+            Map.entry("AUTH_REQUEST", new Route(RequestPipeline.Stage.CPU, ClientHandler::handleAuth)),
+            Map.entry("RESUME_REQUEST", new Route(RequestPipeline.Stage.DB, ClientHandler::handleResume)),
+            Map.entry("LOGOUT_REQUEST", new Route(RequestPipeline.Stage.DB, (h, content) -> h.handleLogout())),
+            Map.entry("UPDATE_PROFILE_REQUEST", new Route(RequestPipeline.Stage.DB, ClientHandler::handleUpdateProfile)),
+            Map.entry("CLIENT_MESSAGE", new Route(RequestPipeline.Stage.CPU, ClientHandler::handleClientMessage)),
+            Map.entry("CREATE_QUESTION", new Route(RequestPipeline.Stage.DB, ClientHandler::handleCreateQuestion)),
+            Map.entry("CREATE_QUESTIONS_BATCH", new Route(RequestPipeline.Stage.DB, ClientHandler::handleCreateQuestionsBatch)),
+            Map.entry("EDIT_QUESTION", new Route(RequestPipeline.Stage.DB, ClientHandler::handleEditQuestion)),
+            Map.entry("SUBSCRIBE_QUESTION", new Route(RequestPipeline.Stage.CPU, ClientHandler::handleSubscribeQuestion)),
+            Map.entry("SUBMIT_ANSWER", new Route(RequestPipeline.Stage.DB, ClientHandler::handleSubmitAnswer)),
+            Map.entry("BULK_IMPORT_STUDENTS", new Route(RequestPipeline.Stage.DB, ClientHandler::handleBulkImportStudents)),
+            Map.entry("TEACHER_STATS", new Route(RequestPipeline.Stage.DB, ClientHandler::handleTeacherStats)),
+            Map.entry("REBUILD_STATS", new Route(RequestPipeline.Stage.DB, (h, content) -> h.handleRebuildStats())),
+            Map.entry("REPORT_REQUEST", new Route(RequestPipeline.Stage.CPU, (h, content) -> h.handleReportRequest(content, false))),
+            Map.entry("ARCHIVE_REPORT_REQUEST", new Route(RequestPipeline.Stage.CPU, (h, content) -> h.handleReportRequest(content, true))),
+            Map.entry("SEARCH_QUESTIONS", new Route(RequestPipeline.Stage.DB, ClientHandler::handleSearchQuestions)),
+            Map.entry("LIST_QUESTIONS", new Route(RequestPipeline.Stage.DB, ClientHandler::handleListQuestions)),
+            Map.entry("QUESTION_RESULTS", new Route(RequestPipeline.Stage.DB, ClientHandler::handleQuestionResults)),
+            Map.entry("DELETE_QUESTION", new Route(RequestPipeline.Stage.DB, ClientHandler::handleDeleteQuestion)));
+    // one latency histogram per request type; unknown types share one so clients can't grow the map
+    private static final ConcurrentHashMap<String, Metrics.Histogram> REQUEST_TIMERS = new ConcurrentHashMap<>();
+    // messages queued for a client that doesn't read them before the connection is dropped
+    private static final int MAX_PENDING_WRITES = 1024;
+    // writes drained per turn on the write stage, so one busy connection can't hold a writer thread
+    private static final int WRITES_PER_TURN = 64;
+    // requests accepted in one BATCH
+    private static final int MAX_BATCH = Integer.getInteger("pd.batch.maxRequests", 256);
+    // request types that can't run inside a BATCH (their replies don't come back before the handler returns)
+    private static final Set<String> NOT_BATCHABLE = Set.of("BATCH", "REPORT_REQUEST", "ARCHIVE_REPORT_REQUEST",
+            "BULK_IMPORT_STUDENTS");
+    // replies of the request running on this thread go here instead of the socket while a BATCH runs
+    private static final ThreadLocal<Capture> CAPTURE = new ThreadLocal<>();
+    // only what clients legitimately send may be deserialized
+    private static final ObjectInputFilter INPUT_FILTER = ObjectInputFilter.Config.createFilter(
+            "pt.isec.pd.common.Message;java.util.ArrayList;java.lang.String;java.lang.Object;maxdepth=8;!*");
+    private static final int SEARCH_PAGE_SIZE = 20;
+    private static final int LIST_PAGE_SIZE = 20;
+    private static final int MAX_LIST_PAGE_SIZE = 200;
+
     private final Socket clientSocket;
     private ObjectOutputStream out;
     private ObjectInputStream in;
@@ -20,6 +90,10 @@ public class ClientHandler extends Thread {
     private volatile String name;
     private volatile String role; // To know if user is DOCENTE or STUDENT
     private final AtomicBoolean authenticated = new AtomicBoolean(false);
+    private final Outbound outbound = new Outbound();
+    private volatile boolean closed;
+    // trace of the request currently being served, so its replies are timed too
+    private volatile RequestTrace requestTrace;
 
     public ClientHandler(Socket socket) {
         this.clientSocket = socket;
@@ -31,51 +105,193 @@ public class ClientHandler extends Thread {
         try {
             out = new ObjectOutputStream(clientSocket.getOutputStream());
             out.flush();
-            in = new ObjectInputStream(clientSocket.getInputStream());
+            TimedInputStream timedIn = new TimedInputStream(clientSocket.getInputStream());
+            in = new ObjectInputStream(timedIn);
+            in.setObjectInputFilter(INPUT_FILTER);
 
             ClientManager.register(this);
             Object obj;
             while ((obj = in.readObject()) != null) {
+                long received = timedIn.takeFirstReadNanos();
                 if (!(obj instanceof Message msg)) {
                     send(new Message("ERROR", "Unsupported object received"));
                     continue;
                 }
-                System.out.println("[Server] Received -> type=" + msg.getType() + " content=" + msg.getContent());
-                handleMessage(msg);
+                RequestTrace.begin(msg.getType(), received);
+                RequestTrace.record(RequestTrace.Stage.DECODE, received);
+                Log.debug("[Server] Received -> {}", msg);
+                ClientManager.beginRequest();
+                long start = System.nanoTime();
+                try {
+                    handleMessage(msg);
+                } finally {
+                    ClientManager.endRequest();
+                    requestTimer(msg.getType()).recordSince(start);
+                    RequestTrace.end();
+                }
             }
         } catch (EOFException eof) {
-            System.out.println("[Server] Client disconnected: " + clientSocket.getRemoteSocketAddress());
+            Log.debug("[Server] Client disconnected: {}", clientSocket.getRemoteSocketAddress());
         } catch (SocketException se) {
-            System.err.println("[Server] Socket error in client handler: " + se.getMessage());
+            Log.warn("[Server] Socket error in client handler: {}", se.getMessage());
         } catch (IOException | ClassNotFoundException e) {
-            System.err.println("[Server] I/O or serialization error in client handler: " + e.getMessage());
+            Log.warn("[Server] I/O or serialization error in client handler: {}", e.getMessage());
         } finally {
             cleanup();
         }
     }
 
+    private static Metrics.Histogram requestTimer(String type) {
+        String key = ROUTES.containsKey(type) || "BATCH".equals(type) ? type : "UNKNOWN";
+        return REQUEST_TIMERS.computeIfAbsent(key, k -> Metrics.timer("server.request." + k));
+    }
+
     private void handleMessage(Message msg) throws IOException {
+        if ("BATCH".equals(msg.getType())) {
+            handleBatch(msg);
+        } else {
+            dispatch(msg);
+        }
+        flushReplies();
+    }
+
+    // Routes one request to its stage and waits for it; replies are queued, not yet flushed
+    private void dispatch(Message msg) throws IOException {
         String type = msg.getType();
         String content = Objects.toString(msg.getContent(), "");
 
+        // until the DS has named this server the principal (another one may be), writes are refused
+        if (WRITE_REQUESTS.contains(type) && !ReplicaState.isPrincipal()) {
+            send(new Message("READ_ONLY", type + " must be sent to the principal server"));
+            return;
+        }
+
+        Route route = ROUTES.get(type);
+        if (route == null) {
+            send(new Message("ACK", "Unknown request type: " + type));
+            return;
+        }
+
+        boolean expensive = AdmissionControl.isExpensive(type);
+        if (expensive) {
+            String refused = AdmissionControl.tryAdmit(clientSocket.getInetAddress().getHostAddress(), accountOf(type, content));
+            if (refused != null) {
+                send(new Message("RATE_LIMITED", refused));
+                return;
+            }
+        }
+        try {
+            runStage(route, content);
+        } catch (RejectedExecutionException e) {
+            // stage queue or hashing pool saturated: answer right away instead of queueing more work
+            send(new Message("SERVER_BUSY", type + " rejected, server is busy. Try again later."));
+        } finally {
+            if (expensive) AdmissionControl.release();
+        }
+    }
+
+    // payload: ArrayList<Message> of requests, run in order exactly as if sent one by one.
+    // Reply: one BATCH_RESPONSE whose payload is an ArrayList with, for each request, the ArrayList of
+    // the replies it produced; all of it goes out in a single write and flush.
+    private void handleBatch(Message msg) throws IOException {
+        if (!(msg.getPayload() instanceof List<?> requests) || requests.size() > MAX_BATCH) {
+            send(new Message("BATCH_FAILURE", "Expected a list of at most " + MAX_BATCH + " requests"));
+            return;
+        }
+        ArrayList<ArrayList<Message>> results = new ArrayList<>(requests.size());
+        for (Object o : requests) {
+            ArrayList<Message> replies = new ArrayList<>(1);
+            results.add(replies);
+            if (!(o instanceof Message request) || request.getType() == null) {
+                replies.add(new Message("ERROR", "Unsupported object in batch"));
+                continue;
+            }
+            if (NOT_BATCHABLE.contains(request.getType())) {
+                replies.add(new Message("ERROR", request.getType() + " can't be sent inside a BATCH"));
+                continue;
+            }
+            long start = System.nanoTime();
+            CAPTURE.set(new Capture(this, replies));
+            try {
+                dispatch(request);
+            } finally {
+                CAPTURE.remove();
+                requestTimer(request.getType()).recordSince(start);
+            }
+        }
+        send(new Message("BATCH_RESPONSE", String.valueOf(results.size()), results));
+    }
+
+    private record Capture(ClientHandler owner, List<Message> replies) { }
+
+    // Runs the handler on its stage and waits for it, so requests of one connection stay in order
+    private void runStage(Route route, String content) throws IOException {
+        RequestTrace trace = RequestTrace.current();
+        Capture capture = CAPTURE.get();
+        long queued = RequestTrace.start();
+        requestTrace = trace;
+        try {
+            Future<?> f = RequestPipeline.submit(route.stage(), () -> {
+                RequestTrace.attach(trace);
+                RequestTrace.record(RequestTrace.Stage.QUEUE, queued);
+                CAPTURE.set(capture);
+                try {
+                    route.handler().handle(this, content);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    CAPTURE.remove();
+                    RequestTrace.detach();
+                }
+            });
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + route.stage() + " stage");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException io) throw io.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IOException(cause);
+        } finally {
+            requestTrace = null;
+        }
+    }
+
+    // Waits until every reply queued so far is on the wire; the next request is read only after that
+    private void flushReplies() throws IOException {
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        outbound.enqueue(() -> flushed.complete(null));
+        while (!closed) {
+            try {
+                flushed.get(1, TimeUnit.SECONDS);
+                return;
+            } catch (TimeoutException e) {
+                // still writing; re-check that the connection wasn't dropped meanwhile
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while flushing replies");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        throw new SocketException("Connection closed while writing");
+    }
+
+    // account an expensive request is about, for per-account limits
+    private String accountOf(String type, String content) {
         switch (type) {
-            case "REGISTER_REQUEST":
-                handleRegister(content);
-                break;
-            case "AUTH_REQUEST":
-                handleAuth(content);
-                break;
-            case "LOGOUT_REQUEST":
-                handleLogout();
-                break;
-            case "UPDATE_PROFILE_REQUEST":
-                handleUpdateProfile(content);
-                break;
-            case "CLIENT_MESSAGE":
-                handleClientMessage(content);
-                break;
+            case "AUTH_REQUEST": {
+                String[] parts = content.contains("|") ? content.split("\\|", 3) : content.split(":", 2);
+                return parts.length == 3 ? parts[1] : parts[0];
+            }
+            case "REGISTER_REQUEST": {
+                String[] parts = content.split("\\|", 3);
+                return parts.length > 1 ? parts[1] : null;
+            }
             default:
-                send(new Message("ACK", "Unknown request type: " + type));
+                return email;
         }
     }
 
@@ -126,7 +342,7 @@ public class ClientHandler extends Thread {
         String name = parts[3];
         String extra = parts[4]; // studentNumber or registrationCode
 
-        System.out.println("[Server Debug] Role: " + role + ", Email: " + email + ", Name: " + name + ", Extra: " + extra);
+        Log.debug("[Server] Register request. Role: {}, Email: {}, Name: {}", role, email, name);
 
         if (email.isEmpty() || password.isEmpty()) {
             send(new Message("REGISTER_FAILURE", "Email and password are required."));
@@ -148,10 +364,10 @@ public class ClientHandler extends Thread {
             result = UsersRepository.registerStudent(email, password, name, extra);
         }
 
-        System.out.println("[Server] Registration result for " + email + ": " + result);
+        Log.debug("[Server] Registration result for {}: {}", email, result);
         switch (result) {
             case "OK":
-                System.out.println("[Server] Registered " + role + ": " + email);
+                Log.info("[Server] Registered {}: {}", role, email);
                 send(new Message("REGISTER_SUCCESS", "Registration successful for " + email));
                 break;
             case "EMAIL_ALREADY_EXISTS":
@@ -204,26 +420,428 @@ public class ClientHandler extends Thread {
             this.name = userName.isEmpty() ? this.email : userName;
             this.role = role;
             authenticated.set(true);
-            System.out.println("[Server] Authentication success for: " + this.email + " as " + role);
-            send(new Message("AUTH_SUCCESS", this.name));
+            Log.debug("[Server] Authentication success for: {} as {}", this.email, role);
+            // name|token; the token lets the client resume on another server after a failover
+            String token = SessionTokens.issue(role, this.email, this.name, UsersRepository.sessionGeneration(role, this.email));
+            send(new Message("AUTH_SUCCESS", token == null ? this.name : this.name + "|" + token));
         } else {
-            System.out.println("[Server] Authentication failure for: " + email + " as " + role);
+            Log.info("[Server] Authentication failure for: {} as {}", email, role);
             send(new Message("AUTH_FAILURE", "Invalid email or password"));
         }
     }
 
+    private void handleResume(String token) throws IOException {
+        SessionTokens.Session session = SessionTokens.verify(token.trim());
+        if (session == null) {
+            send(new Message("RESUME_FAILURE", "Session expired or invalid, please log in again"));
+            return;
+        }
+        this.email = session.email();
+        this.name = session.name();
+        this.role = session.role();
+        authenticated.set(true);
+        Log.debug("[Server] Session resumed for: {} as {}", this.email, this.role);
+        send(new Message("RESUME_SUCCESS", this.name));
+    }
+
     private void handleLogout() throws IOException {
         if (authenticated.getAndSet(false)) {
+            // revoke the session token too; a backup can't write, so there it only expires
+            if (ReplicaState.isPrincipal()) {
+                try {
+                    UsersRepository.revokeSessions(role, email);
+                } catch (SQLException e) {
+                    Log.error("[Server] Could not revoke the sessions of {}: {}", email, e.getMessage());
+                }
+            }
             this.email = null;
             this.name = null;
             this.role = null;
-            System.out.println("[Server] Client logged out: " + clientSocket.getRemoteSocketAddress());
+            Log.debug("[Server] Client logged out: {}", clientSocket.getRemoteSocketAddress());
             send(new Message("LOGOUT_SUCCESS", ""));
         } else {
             send(new Message("LOGOUT_FAILURE", "Not logged in"));
         }
     }
 
+    private void handleCreateQuestion(String payload) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("CREATE_QUESTION_FAILURE", "Only authenticated teachers can create questions"));
+            return;
+        }
+        QuestionsRepository.NewQuestion question;
+        try {
+            question = QuestionsRepository.parseQuestion(payload);
+        } catch (IllegalArgumentException e) {
+            send(new Message("CREATE_QUESTION_FAILURE", e.getMessage()));
+            return;
+        }
+        String result = QuestionsRepository.createQuestions(email, List.of(question));
+        if (result.startsWith("OK|")) {
+            // id:code -> id|code
+            send(new Message("CREATE_QUESTION_SUCCESS", result.substring(3).replace(':', '|')));
+        } else {
+            send(new Message("CREATE_QUESTION_FAILURE", result));
+        }
+    }
+
+    // one question per line, same format as CREATE_QUESTION; all lines are created or none
+    private void handleCreateQuestionsBatch(String payload) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("CREATE_QUESTIONS_BATCH_FAILURE", "Only authenticated teachers can create questions"));
+            return;
+        }
+        List<QuestionsRepository.NewQuestion> questions = new ArrayList<>();
+        String[] lines = payload.split("\\R");
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isBlank()) continue;
+            try {
+                questions.add(QuestionsRepository.parseQuestion(lines[i]));
+            } catch (IllegalArgumentException e) {
+                send(new Message("CREATE_QUESTIONS_BATCH_FAILURE", "Line " + (i + 1) + ": " + e.getMessage()));
+                return;
+            }
+        }
+        String result = QuestionsRepository.createQuestions(email, questions);
+        if (result.startsWith("OK|")) {
+            send(new Message("CREATE_QUESTIONS_BATCH_SUCCESS", questions.size() + "|" + result.substring(3)));
+        } else {
+            send(new Message("CREATE_QUESTIONS_BATCH_FAILURE", result));
+        }
+    }
+
+    // id|text|start|end  (blank text keeps the current one); only before the question starts
+    private void handleEditQuestion(String payload) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("EDIT_QUESTION_FAILURE", "Only authenticated teachers can edit questions"));
+            return;
+        }
+        String[] parts = payload.split("\\|", 4);
+        if (parts.length < 4) {
+            send(new Message("EDIT_QUESTION_FAILURE", "Invalid format. Expected: id|text|start|end"));
+            return;
+        }
+        String result;
+        try {
+            result = QuestionsRepository.updateQuestion(email, Long.parseLong(parts[0].trim()), parts[1],
+                    QuestionsRepository.parseDateTime(parts[2]), QuestionsRepository.parseDateTime(parts[3]));
+        } catch (IllegalArgumentException e) {
+            send(new Message("EDIT_QUESTION_FAILURE", e.getMessage()));
+            return;
+        }
+        switch (result) {
+            case "OK" -> send(new Message("EDIT_QUESTION_SUCCESS", parts[0].trim()));
+            case "NOT_FOUND" -> send(new Message("EDIT_QUESTION_FAILURE", "Question not found"));
+            case "NOT_OWNER" -> send(new Message("EDIT_QUESTION_FAILURE", "Only the author can edit this question"));
+            case "ALREADY_STARTED" -> send(new Message("EDIT_QUESTION_FAILURE", "The question has already started"));
+            case "INVALID_INPUT" -> send(new Message("EDIT_QUESTION_FAILURE", "The new window must be in the future and end after it starts"));
+            default -> send(new Message("EDIT_QUESTION_FAILURE", "A database error occurred on the server."));
+        }
+    }
+
+    private void handleSubscribeQuestion(String code) throws IOException {
+        if (!authenticated.get()) {
+            send(new Message("SUBSCRIBE_FAILURE", "Not authenticated"));
+            return;
+        }
+        code = code.trim().toUpperCase();
+        QuestionScheduler.State state = QuestionScheduler.stateOf(code);
+        if (state != QuestionScheduler.State.CLOSED) {
+            QuestionScheduler.subscribe(code, this);
+        }
+        send(new Message("SUBSCRIBE_SUCCESS", code + "|" + state));
+    }
+
+    // code|option
+    private void handleSubmitAnswer(String payload) throws IOException {
+        if (!authenticated.get() || !"STUDENT".equals(role)) {
+            send(new Message("SUBMIT_ANSWER_FAILURE", "Only authenticated students can answer"));
+            return;
+        }
+        String[] parts = payload.split("\\|", 2);
+        if (parts.length < 2) {
+            send(new Message("SUBMIT_ANSWER_FAILURE", "Invalid format. Expected: code|option"));
+            return;
+        }
+        long studentId = UsersRepository.findStudentId(email);
+        if (studentId < 0) {
+            send(new Message("SUBMIT_ANSWER_FAILURE", "Student not found"));
+            return;
+        }
+        String code = parts[0].trim().toUpperCase();
+        switch (QuestionScheduler.submitAnswer(code, studentId, parts[1])) {
+            case "OK" -> send(new Message("SUBMIT_ANSWER_SUCCESS", code));
+            case "INVALID_OPTION" -> send(new Message("SUBMIT_ANSWER_FAILURE", "No such option"));
+            case "NOT_SAVED" -> send(new Message("SUBMIT_ANSWER_FAILURE", "Your answer could not be saved, please send it again"));
+            default -> send(new Message("SUBMIT_ANSWER_FAILURE", "Question " + code + " is not open"));
+        }
+    }
+
+    // CSV, one student per line: student_number,name,email,password (a header line is skipped).
+    // Replies with "imported|rejected" followed by one "Line N: result" per row.
+    private void handleBulkImportStudents(String payload) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("BULK_IMPORT_STUDENTS_FAILURE", "Only authenticated teachers can import students"));
+            return;
+        }
+        String[] lines = payload.split("\\R");
+        String[] report = new String[lines.length];
+        List<UsersRepository.NewStudent> students = new ArrayList<>();
+        List<Integer> lineOf = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isBlank() || (i == 0 && lines[i].trim().toLowerCase().startsWith("student_number"))) continue;
+            try {
+                students.add(UsersRepository.parseStudentCsv(lines[i]));
+                lineOf.add(i);
+            } catch (IllegalArgumentException e) {
+                report[i] = e.getMessage();
+            }
+        }
+        try {
+            if (!StudentImport.submit(students, results -> sendImportReport(report, lineOf, results))) {
+                send(new Message("BULK_IMPORT_STUDENTS_FAILURE", "Too many imports are running, try again later"));
+            }
+        } catch (SQLException e) {
+            Log.error("SQL Error checking imported students: {}", e.getMessage());
+            send(new Message("BULK_IMPORT_STUDENTS_FAILURE", "A database error occurred on the server."));
+        }
+    }
+
+    // Runs when the import job finishes, on whichever thread completed it
+    private void sendImportReport(String[] report, List<Integer> lineOf, List<String> results) {
+        for (int k = 0; k < results.size(); k++) {
+            report[lineOf.get(k)] = results.get(k);
+        }
+        int imported = 0;
+        int rejected = 0;
+        StringBuilder details = new StringBuilder();
+        for (int i = 0; i < report.length; i++) {
+            if (report[i] == null) continue;
+            if ("OK".equals(report[i])) imported++; else rejected++;
+            details.append('\n').append("Line ").append(i + 1).append(": ").append(report[i]);
+        }
+        Log.info("[Import] {} imported {} student(s), {} rejected", email, imported, rejected);
+        try {
+            send(new Message("BULK_IMPORT_STUDENTS_SUCCESS", imported + "|" + rejected + details));
+        } catch (IOException e) {
+            Log.warn("[Import] Client went away before the import report for {} was sent: {}", email, e.getMessage());
+        }
+    }
+
+    // payload: optional number of recent questions (default 50, at most 500).
+    // Reply: questions|answers|correct|participants, then one id|code|answers|correct line per question.
+    private void handleTeacherStats(String payload) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("TEACHER_STATS_FAILURE", "Only authenticated teachers can see statistics"));
+            return;
+        }
+        int limit = 50;
+        if (!payload.isBlank()) {
+            try {
+                limit = Math.max(1, Math.min(500, Integer.parseInt(payload.trim())));
+            } catch (NumberFormatException e) {
+                send(new Message("TEACHER_STATS_FAILURE", "Invalid number of questions"));
+                return;
+            }
+        }
+        try {
+            StatsRepository.TeacherSummary summary = StatsRepository.teacherSummary(email);
+            if (summary == null) {
+                send(new Message("TEACHER_STATS_FAILURE", "Teacher not found"));
+                return;
+            }
+            StringBuilder sb = new StringBuilder()
+                    .append(summary.questions()).append('|').append(summary.answers()).append('|')
+                    .append(summary.correct()).append('|').append(summary.participants());
+            for (StatsRepository.QuestionSummary q : StatsRepository.recentQuestions(email, limit)) {
+                sb.append('\n').append(q.id()).append('|').append(q.code()).append('|')
+                        .append(q.answers()).append('|').append(q.correct());
+            }
+            send(new Message("TEACHER_STATS_SUCCESS", sb.toString()));
+        } catch (SQLException e) {
+            Log.error("SQL Error reading statistics: {}", e.getMessage());
+            send(new Message("TEACHER_STATS_FAILURE", "A database error occurred on the server."));
+        }
+    }
+
+    // Only rebuilds stats that don't cover every question; rate-limited by AdmissionControl
+    private void handleRebuildStats() throws IOException {
+        if (!isTeacher()) {
+            send(new Message("REBUILD_STATS_FAILURE", "Only authenticated teachers can rebuild statistics"));
+            return;
+        }
+        try {
+            boolean rebuilt = StatsRepository.rebuildIfIncomplete();
+            send(new Message("REBUILD_STATS_SUCCESS", rebuilt ? "Statistics rebuilt" : "Statistics are already up to date"));
+        } catch (SQLException e) {
+            Log.error("SQL Error rebuilding statistics: {}", e.getMessage());
+            send(new Message("REBUILD_STATS_FAILURE", "A database error occurred on the server."));
+        }
+    }
+
+    // payload: empty, or from|to dates (yyyy-MM-dd, both inclusive) on the question start.
+    // The report is built in the background; the reply is REPORT_ROWS chunks then REPORT_END.
+    // ARCHIVE_REPORT_REQUEST (archived) does the same over the questions ArchiveJob moved out.
+    private void handleReportRequest(String payload, boolean archived) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("REPORT_FAILURE", "Only authenticated teachers can request reports"));
+            return;
+        }
+        LocalDateTime from = null;
+        LocalDateTime to = null;
+        if (!payload.isBlank()) {
+            String[] parts = payload.split("\\|", 2);
+            try {
+                if (!parts[0].isBlank()) from = LocalDate.parse(parts[0].trim()).atStartOfDay();
+                if (parts.length > 1 && !parts[1].isBlank()) to = LocalDate.parse(parts[1].trim()).plusDays(1).atStartOfDay();
+            } catch (DateTimeParseException e) {
+                send(new Message("REPORT_FAILURE", "Invalid format. Expected: from|to as yyyy-MM-dd"));
+                return;
+            }
+        }
+        if (archived && ArchiveJob.archiveVersion() == 0) {
+            send(new Message("REPORT_FAILURE", "No questions have been archived on this server"));
+            return;
+        }
+        if (!ReportEngine.submit(this, email, from, to, archived)) {
+            send(new Message("REPORT_FAILURE", "Too many reports are being generated, try again later"));
+        }
+    }
+
+    // keywords[|page]  pages of 20 from 0. Reply: page|hasMore, then one id|code|start|end|text line per match.
+    private void handleSearchQuestions(String payload) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("SEARCH_QUESTIONS_FAILURE", "Only authenticated teachers can search questions"));
+            return;
+        }
+        String[] parts = payload.split("\\|", 2);
+        int page = 0;
+        try {
+            if (parts.length > 1 && !parts[1].isBlank()) page = Math.max(0, Integer.parseInt(parts[1].trim()));
+        } catch (NumberFormatException e) {
+            send(new Message("SEARCH_QUESTIONS_FAILURE", "Invalid page number"));
+            return;
+        }
+        if (parts[0].isBlank()) {
+            send(new Message("SEARCH_QUESTIONS_FAILURE", "Keywords are required"));
+            return;
+        }
+        try {
+            List<QuestionsRepository.QuestionMatch> matches = QuestionsRepository.searchQuestions(email, parts[0], page, SEARCH_PAGE_SIZE);
+            boolean hasMore = matches.size() > SEARCH_PAGE_SIZE;
+            StringBuilder sb = new StringBuilder().append(page).append('|').append(hasMore);
+            for (QuestionsRepository.QuestionMatch q : matches.subList(0, Math.min(matches.size(), SEARCH_PAGE_SIZE))) {
+                sb.append('\n').append(q.id()).append('|').append(q.code()).append('|').append(q.start())
+                        .append('|').append(q.end()).append('|').append(q.text());
+            }
+            send(new Message("SEARCH_QUESTIONS_SUCCESS", sb.toString()));
+        } catch (SQLException e) {
+            Log.error("SQL Error searching questions: {}", e.getMessage());
+            send(new Message("SEARCH_QUESTIONS_FAILURE", "A database error occurred on the server."));
+        }
+    }
+
+    // [filter][|cursor[|pageSize]]  filter: ALL (default), ACTIVE, FUTURE, EXPIRED; cursor: from the previous page.
+    // Reply: the cursor for the next page (empty on the last page), then one id|code|start|end|answers|text line per question.
+    private void handleListQuestions(String payload) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("LIST_QUESTIONS_FAILURE", "Only authenticated teachers can list questions"));
+            return;
+        }
+        String[] parts = payload.split("\\|", 3);
+        QuestionsRepository.ListFilter filter;
+        long cursor = 0;
+        int pageSize = LIST_PAGE_SIZE;
+        try {
+            filter = parts[0].isBlank() ? QuestionsRepository.ListFilter.ALL
+                    : QuestionsRepository.ListFilter.valueOf(parts[0].trim().toUpperCase());
+            if (parts.length > 1 && !parts[1].isBlank()) cursor = Long.parseLong(parts[1].trim());
+            if (parts.length > 2 && !parts[2].isBlank()) {
+                pageSize = Math.max(1, Math.min(MAX_LIST_PAGE_SIZE, Integer.parseInt(parts[2].trim())));
+            }
+        } catch (IllegalArgumentException e) {
+            send(new Message("LIST_QUESTIONS_FAILURE", "Invalid format. Expected: ALL|ACTIVE|FUTURE|EXPIRED[|cursor[|pageSize]]"));
+            return;
+        }
+        try {
+            List<QuestionsRepository.QuestionListing> page = QuestionsRepository.listQuestions(email, filter, cursor, pageSize);
+            boolean hasMore = page.size() > pageSize;
+            if (hasMore) page = page.subList(0, pageSize);
+            StringBuilder sb = new StringBuilder(hasMore ? String.valueOf(page.get(page.size() - 1).id()) : "");
+            for (QuestionsRepository.QuestionListing q : page) {
+                sb.append('\n').append(q.id()).append('|').append(q.code()).append('|').append(q.start())
+                        .append('|').append(q.end()).append('|').append(q.answers()).append('|').append(q.text());
+            }
+            send(new Message("LIST_QUESTIONS_SUCCESS", sb.toString()));
+        } catch (SQLException e) {
+            Log.error("SQL Error listing questions: {}", e.getMessage());
+            send(new Message("LIST_QUESTIONS_FAILURE", "A database error occurred on the server."));
+        }
+    }
+
+    // payload: access code. Closed questions are answered from ResultCache when possible.
+    private void handleQuestionResults(String payload) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("QUESTION_RESULTS_FAILURE", "Only authenticated teachers can see results"));
+            return;
+        }
+        String code = payload.trim().toUpperCase();
+        ResultCache.Entry cached = ResultCache.get(code);
+        if (cached != null) {
+            if (cached.ownerEmail().equalsIgnoreCase(email)) {
+                send(cached.reply());
+            } else {
+                send(new Message("QUESTION_RESULTS_FAILURE", "Only the author can see these results"));
+            }
+            return;
+        }
+        long generation = ResultCache.generation();
+        try {
+            QuestionsRepository.QuestionResults results = QuestionsRepository.loadResults(code);
+            if (results == null) {
+                send(new Message("QUESTION_RESULTS_FAILURE", "Question not found"));
+                return;
+            }
+            Message reply = new Message("QUESTION_RESULTS_SUCCESS", results.content());
+            // past its end but still tracked: the scheduler may not have saved all the answers yet
+            if (results.closed() && !QuestionScheduler.isTracked(code)) {
+                ResultCache.put(code, results.id(), results.ownerEmail(), reply, generation);
+            }
+            if (!results.ownerEmail().equalsIgnoreCase(email)) {
+                send(new Message("QUESTION_RESULTS_FAILURE", "Only the author can see these results"));
+                return;
+            }
+            send(reply);
+        } catch (SQLException e) {
+            Log.error("SQL Error reading results of {}: {}", code, e.getMessage());
+            send(new Message("QUESTION_RESULTS_FAILURE", "A database error occurred on the server."));
+        }
+    }
+
+    private void handleDeleteQuestion(String payload) throws IOException {
+        if (!isTeacher()) {
+            send(new Message("DELETE_QUESTION_FAILURE", "Only authenticated teachers can delete questions"));
+            return;
+        }
+        long id;
+        try {
+            id = Long.parseLong(payload.trim());
+        } catch (NumberFormatException e) {
+            send(new Message("DELETE_QUESTION_FAILURE", "Invalid question id"));
+            return;
+        }
+        switch (QuestionsRepository.deleteQuestion(email, id)) {
+            case "OK" -> send(new Message("DELETE_QUESTION_SUCCESS", String.valueOf(id)));
+            case "NOT_FOUND" -> send(new Message("DELETE_QUESTION_FAILURE", "Question not found"));
+            case "NOT_OWNER" -> send(new Message("DELETE_QUESTION_FAILURE", "Only the author can delete this question"));
+            default -> send(new Message("DELETE_QUESTION_FAILURE", "A database error occurred on the server."));
+        }
+    }
+
+    private boolean isTeacher() {
+        return authenticated.get() && "DOCENTE".equals(role);
+    }
+
     private void handleClientMessage(String content) throws IOException {
         if (!authenticated.get()) {
             send(new Message("ERROR", "Not authenticated"));
@@ -233,10 +851,34 @@ public class ClientHandler extends Thread {
         ClientManager.broadcast(sender, content);
     }
 
-    public synchronized void send(Message msg) throws IOException {
+    // Queues the message for this connection's writer; writes happen on the WRITE stage, in order
+    public void send(Message msg) throws IOException {
         if (out == null) throw new IOException("Output stream not initialized");
-        out.writeObject(msg);
-        out.flush();
+        Capture capture = CAPTURE.get();
+        if (capture != null && capture.owner() == this) {
+            capture.replies().add(msg);
+            return;
+        }
+        RequestTrace current = RequestTrace.current();
+        RequestTrace trace = current != null && current == requestTrace ? current : null;
+        outbound.enqueue(() -> write(msg, trace));
+    }
+
+    private void write(Message msg, RequestTrace trace) {
+        if (closed) return;
+        RequestTrace.attach(trace);
+        long t0 = RequestTrace.start();
+        try {
+            out.writeObject(msg);
+            out.flush();
+        } catch (IOException e) {
+            Log.debug("[Server] Write to {} failed: {}", clientSocket.getRemoteSocketAddress(), e.getMessage());
+            closed = true;
+            try { closeSilently(); } catch (IOException ignored) {}
+        } finally {
+            RequestTrace.record(RequestTrace.Stage.REPLY, t0);
+            RequestTrace.detach();
+        }
     }
 
     public synchronized void closeSilently() throws IOException {
@@ -246,7 +888,97 @@ public class ClientHandler extends Thread {
     }
 
     private void cleanup() {
+        closed = true;
         ClientManager.unregister(this);
+        QuestionScheduler.unsubscribeAll(this);
         try { closeSilently(); } catch (IOException ignored) {}
     }
+
+    @FunctionalInterface
+    private interface RequestHandler {
+        void handle(ClientHandler handler, String content) throws IOException;
+    }
+
+    private record Route(RequestPipeline.Stage stage, RequestHandler handler) { }
+
+    // Serial queue of this connection's outgoing messages, drained by the WRITE stage
+    private final class Outbound implements Runnable {
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private boolean scheduled;
+
+        synchronized void enqueue(Runnable write) throws IOException {
+            if (closed) throw new SocketException("Connection closed");
+            if (queue.size() >= MAX_PENDING_WRITES) {
+                throw new IOException("Client is not reading, " + queue.size() + " messages pending");
+            }
+            queue.add(write);
+            if (!scheduled) {
+                schedule();
+            }
+        }
+
+        private void schedule() throws IOException {
+            try {
+                RequestPipeline.execute(RequestPipeline.Stage.WRITE, this);
+                scheduled = true;
+            } catch (RejectedExecutionException e) {
+                queue.clear();
+                throw new IOException("Write stage saturated");
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < WRITES_PER_TURN; i++) {
+                Runnable next;
+                synchronized (this) {
+                    next = queue.poll();
+                    if (next == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                next.run();
+            }
+            synchronized (this) {
+                scheduled = false;
+                if (queue.isEmpty()) return;
+                try {
+                    schedule(); // more pending: go to the back of the write stage queue
+                } catch (IOException e) {
+                    closed = true;
+                    try { closeSilently(); } catch (IOException ignored) {}
+                }
+            }
+        }
+    }
+
+    // Remembers when the first bytes of the next request arrived, so decode time excludes idle waiting
+    private static final class TimedInputStream extends FilterInputStream {
+        private long firstReadNanos;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (firstReadNanos == 0) firstReadNanos = System.nanoTime();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (firstReadNanos == 0) firstReadNanos = System.nanoTime();
+            return n;
+        }
+
+        long takeFirstReadNanos() {
+            long t = firstReadNanos == 0 ? System.nanoTime() : firstReadNanos;
+            firstReadNanos = 0;
+            return t;
+        }
+    }
 }
@@ -1,13 +1,26 @@
 package pt.isec.pd.server;
 
 import pt.isec.pd.common.Message;
+import pt.isec.pd.utils.Metrics;
 
 import java.io.IOException;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ClientManager {
     private static final Set<ClientHandler> handlers = new CopyOnWriteArraySet<>();
+    // client requests currently being handled (background work such as replication yields to them)
+    private static final AtomicInteger inFlightRequests = new AtomicInteger();
+    private static final LongAdder totalRequests = new LongAdder();
+    private static final Metrics.Histogram BROADCAST_TIMER = Metrics.timer("server.broadcast");
+    private static final Metrics.Counter BROADCAST_FAILURES = Metrics.counter("server.broadcast.failures");
+
+    static {
+        Metrics.gauge("server.sessions", ClientManager::activeSessions);
+        Metrics.gauge("server.requests.inFlight", ClientManager::inFlightRequests);
+    }
 
     public static void register(ClientHandler handler) {
         handlers.add(handler);
@@ -17,16 +30,44 @@ public class ClientManager {
         handlers.remove(handler);
     }
 
+    public static void beginRequest() {
+        inFlightRequests.incrementAndGet();
+        totalRequests.increment();
+    }
+
+    public static void endRequest() {
+        inFlightRequests.decrementAndGet();
+    }
+
+    public static boolean hasActiveRequests() {
+        return inFlightRequests.get() > 0;
+    }
+
+    public static int inFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    public static long totalRequests() {
+        return totalRequests.sum();
+    }
+
+    public static int activeSessions() {
+        return handlers.size();
+    }
+
     public static void broadcast(String from, String content) {
+        long start = System.nanoTime();
         Message m = new Message("MESSAGE", from + ": " + content);
         for (ClientHandler h : handlers) {
             try {
                 h.send(m);
             } catch (IOException e) {
                 // If sending fails, unregister that handler to avoid repeated errors
+                BROADCAST_FAILURES.inc();
                 unregister(h);
                 try { h.closeSilently(); } catch (IOException ignored) {}
             }
         }
+        BROADCAST_TIMER.recordSince(start);
     }
 }
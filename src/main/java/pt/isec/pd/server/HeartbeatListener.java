@@ -1,4 +1,86 @@
 package pt.isec.pd.server;
 
-public class HeartbeatListener {
+import pt.isec.pd.utils.Log;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+// Listens to the multicast heartbeats of the other servers. A backup compares the version
+// advertised by the principal with its own replica and starts a catch-up as soon as it is behind,
+// without waiting for the next Directory Service reply.
+public class HeartbeatListener implements Runnable {
+    public static final String GROUP = "230.30.30.30";
+    public static final int PORT = 3030;
+
+    // frame: magic(int) | flags(byte) | version(long) | clientPort(int) | copyPort(int)
+    static final int MAGIC = 0x50444842; // "PDHB"
+    static final int FRAME_SIZE = 4 + 1 + 8 + 4 + 4;
+    static final byte FLAG_PRINCIPAL = 1;
+
+    private static final int RECEIVE_TIMEOUT_MS = 1000;
+
+    private final BackupConnector backupConnector;
+    // reused for every packet, nothing is allocated on the receive path
+    private final byte[] buffer = new byte[FRAME_SIZE];
+    private final ByteBuffer frame = ByteBuffer.wrap(buffer);
+    private final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+    public HeartbeatListener(BackupConnector backupConnector) {
+        this.backupConnector = backupConnector;
+    }
+
+    static void encode(ByteBuffer out, boolean principal, long version, int clientPort, int copyPort) {
+        out.clear();
+        out.putInt(MAGIC);
+        out.put(principal ? FLAG_PRINCIPAL : 0);
+        out.putLong(version);
+        out.putInt(clientPort);
+        out.putInt(copyPort);
+        out.flip();
+    }
+
+    @Override
+    public void run() {
+        try (MulticastSocket socket = new MulticastSocket(PORT)) {
+            socket.joinGroup(new InetSocketAddress(InetAddress.getByName(GROUP), 0), null);
+            socket.setSoTimeout(RECEIVE_TIMEOUT_MS);
+            Log.info("[HeartbeatListener] Joined multicast group {}:{}", GROUP, PORT);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                packet.setLength(buffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                handleFrame(packet.getLength(), packet.getAddress());
+            }
+        } catch (IOException e) {
+            Log.error("[HeartbeatListener] Multicast error: {}", e.getMessage());
+        }
+    }
+
+    private void handleFrame(int length, InetAddress source) {
+        if (length != FRAME_SIZE) return;
+
+        frame.clear();
+        if (frame.getInt() != MAGIC) return;
+        boolean fromPrincipal = (frame.get() & FLAG_PRINCIPAL) != 0;
+        long version = frame.getLong();
+        frame.getInt(); // clientPort
+        int copyPort = frame.getInt();
+
+        if (!fromPrincipal || ReplicaState.isPrincipal()) return;
+
+        // the DS names the principal by the address it sees its heartbeats from, host included
+        String sender = source.getHostAddress() + ":" + copyPort;
+        if (version > ReplicaState.getReplicatedVersion() && sender.equals(ReplicaState.getPrincipal())) {
+            backupConnector.catchUp(ReplicaState.getPrincipal());
+        }
+    }
 }
@@ -2,27 +2,41 @@ package pt.isec.pd.server;
 
 import pt.isec.pd.common.Message;
 import pt.isec.pd.sockets.Udp;
+import pt.isec.pd.utils.Log;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicReference;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class HeartbeatSender implements Runnable {
+    private static final long INTERVAL_MS = Long.getLong("pd.heartbeat.intervalMs", 5000);
+
     private final String dsIp;
     private final int dsPort;
     private final int clientPort;
     private final int copyPort;
     private final String dbFilePath;
-    private final AtomicReference<String> currentPrincipal = new AtomicReference<>(null);
     private final BackupConnector backupConnector;
+    private final ByteBuffer mcastFrame = ByteBuffer.allocate(HeartbeatListener.FRAME_SIZE);
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private long lastRequestCount = 0;
+    private long lastLoadSample = System.nanoTime();
 
-    public HeartbeatSender(String dsIp, int dsPort, int clientPort, int copyPort, String dbFilePath) {
+    public HeartbeatSender(String dsIp, int dsPort, int clientPort, int copyPort, String dbFilePath, BackupConnector backupConnector) {
         this.dsIp = dsIp;
         this.dsPort = dsPort;
         this.clientPort = clientPort;
         this.copyPort = copyPort;
         this.dbFilePath = dbFilePath;
-        this.backupConnector = new BackupConnector();
+        this.backupConnector = backupConnector;
+        ReplicaState.setLocalCopyPort(copyPort);
     }
 
     private String computeDbVersion() {
@@ -33,18 +47,68 @@ public class HeartbeatSender implements Runnable {
         return "0";
     }
 
+    // sessions|requestRate|queueDepth|cpuPercent, reported to the DS for server selection
+    private String computeLoad() {
+        long now = System.nanoTime();
+        long requests = ClientManager.totalRequests();
+        long elapsed = Math.max(1, now - lastLoadSample);
+        long requestRate = (requests - lastRequestCount) * 1_000_000_000L / elapsed;
+        lastRequestCount = requests;
+        lastLoadSample = now;
+
+        return ClientManager.activeSessions() + "|" + requestRate + "|" + (ClientManager.inFlightRequests() + RequestPipeline.backlog()) + "|" + cpuPercent();
+    }
+
+    // on the DB stage so a long rebuild doesn't delay the heartbeats
+    private static void rebuildStats() {
+        try {
+            RequestPipeline.execute(RequestPipeline.Stage.DB, () -> {
+                try {
+                    StatsRepository.rebuildIfIncomplete();
+                } catch (SQLException e) {
+                    Log.error("[Stats] Could not rebuild statistics: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.warn("[Stats] DB stage busy, statistics not checked after promotion");
+        }
+    }
+
+    private int cpuPercent() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+            double load = sunOs.getProcessCpuLoad();
+            if (load >= 0) return (int) Math.round(load * 100);
+        }
+        // fall back to the load average, normalized by the core count
+        double avg = os.getSystemLoadAverage();
+        return avg < 0 ? 0 : (int) Math.min(100, Math.round(avg * 100 / os.getAvailableProcessors()));
+    }
+
     @Override
     public void run() {
+        DatagramSocket mcastSocket = null;
+        DatagramPacket mcastPacket = null;
+        try {
+            mcastSocket = new DatagramSocket();
+            mcastPacket = new DatagramPacket(mcastFrame.array(), HeartbeatListener.FRAME_SIZE,
+                    InetAddress.getByName(HeartbeatListener.GROUP), HeartbeatListener.PORT);
+        } catch (IOException e) {
+            Log.error("Failed opening multicast heartbeat socket: {}", e.getMessage());
+        }
+
         while (!Thread.currentThread().isInterrupted()) {
             String version = computeDbVersion();
-            String payload = version + "|" + clientPort + "|" + copyPort;
+            String payload = version + "|" + clientPort + "|" + copyPort + "|" + computeLoad();
             Message hb = new Message("HEARTBEAT", payload);
 
-            // send multicast heartbeat
-            try (Udp mcast = new Udp("230.30.30.30", 3030)) {
-                mcast.send(hb);
-            } catch (IOException e) {
-                System.err.println("Failed sending multicast heartbeat: " + e.getMessage());
+            // send multicast heartbeat (compact binary frame, see HeartbeatListener)
+            if (mcastSocket != null) {
+                try {
+                    HeartbeatListener.encode(mcastFrame, ReplicaState.isPrincipal(), Long.parseLong(version), clientPort, copyPort);
+                    mcastSocket.send(mcastPacket);
+                } catch (IOException e) {
+                    Log.warn("Failed sending multicast heartbeat: {}", e.getMessage());
+                }
             }
 
             // send heartbeat to Directory Service and wait short reply
@@ -56,8 +120,12 @@ public class HeartbeatSender implements Runnable {
                     if (resp instanceof Message) {
                         Message m = (Message) resp;
                         String principal = m.getContent();
-                        String prev = currentPrincipal.getAndSet(principal);
-                        if (principal != null && !principal.isBlank() && !principal.equals(prev) && !principal.endsWith(":" + copyPort)) {
+                        String prev = ReplicaState.setPrincipal(principal);
+                        boolean changed = principal != null && !principal.isBlank() && !principal.equals(prev);
+                        if (changed && ReplicaState.isPrincipal()) {
+                            // just promoted: only the principal rebuilds stats, backups get them with the copy
+                            rebuildStats();
+                        } else if (changed) {
                             // connect to new principal if I'm a backup
                             backupConnector.connectToPrincipal(principal);
                         } else if ((principal == null || principal.isBlank()) && prev != null) {
@@ -68,16 +136,17 @@ public class HeartbeatSender implements Runnable {
                     // no response or error - ignore, will retry next heartbeat
                 }
             } catch (IOException e) {
-                System.err.println("Failed sending heartbeat to DS: " + e.getMessage());
+                Log.warn("Failed sending heartbeat to DS: {}", e.getMessage());
             }
 
             try {
-                Thread.sleep(5000);
+                Thread.sleep(INTERVAL_MS);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
         }
 
+        if (mcastSocket != null) mcastSocket.close();
         backupConnector.disconnect();
     }
 }
@@ -0,0 +1,275 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.common.Message;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+import pt.isec.pd.utils.TimerWheel;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Opens and closes questions at their start/end instants.
+// Every question that hasn't closed is kept in memory with two timers on a hierarchical timing
+// wheel (O(1) to add, move or cancel), loaded from the DB at startup and updated on create/edit.
+// Clients subscribe by access code and are told when the question opens and closes. Answers are
+// group-committed: submitAnswer queues the answer and waits for the committer thread, which writes
+// everything queued meanwhile (one transaction per question), so a student is only told the answer
+// was accepted once it is in the DB. A closed question stays tracked until the answers queued
+// before it closed are written.
+public final class QuestionScheduler {
+    public enum State { SCHEDULED, OPEN, CLOSED }
+
+    // how long submitAnswer waits for its answer to be committed
+    private static final long COMMIT_TIMEOUT_MS = Long.getLong("pd.scheduler.commitTimeoutMs", 5000);
+    // answers written per group commit at most
+    private static final int MAX_GROUP = 1024;
+
+    private static final TimerWheel wheel = new TimerWheel("question-scheduler", 100, 64);
+    private static final ConcurrentHashMap<String, Entry> byCode = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Set<ClientHandler>> subscribers = new ConcurrentHashMap<>();
+    // answers waiting for the committer, and the close markers queued behind them
+    private static final LinkedBlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private static final AtomicInteger uncommitted = new AtomicInteger();
+
+    private static final Metrics.Counter ANSWERS_BUFFERED = Metrics.counter("scheduler.answersBuffered");
+    private static final Metrics.Counter ANSWERS_FLUSHED = Metrics.counter("scheduler.answersFlushed");
+    private static final Metrics.Counter FLUSH_FAILURES = Metrics.counter("scheduler.flushFailures");
+    private static final Metrics.Histogram GROUP_COMMIT = Metrics.timer("scheduler.groupCommit");
+
+    static {
+        Metrics.gauge("scheduler.questions", byCode::size);
+        Metrics.gauge("scheduler.uncommittedAnswers", uncommitted::get);
+        Thread committer = new Thread(QuestionScheduler::commitLoop, "answer-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    private QuestionScheduler() { }
+
+    private static final class Entry {
+        final QuestionsRepository.ScheduledQuestion question;
+        volatile State state = State.SCHEDULED;
+        TimerWheel.Timeout openTimer;
+        TimerWheel.Timeout closeTimer;
+
+        Entry(QuestionsRepository.ScheduledQuestion question) {
+            this.question = question;
+        }
+    }
+
+    // an answer (closing == false) or the marker queued when the question closed
+    private record Pending(Entry entry, long studentId, String option, CompletableFuture<Boolean> saved, boolean closing) { }
+
+    // (Re)loads every question that hasn't closed yet
+    public static void load() {
+        try {
+            byCode.values().forEach(QuestionScheduler::cancelTimers);
+            byCode.clear();
+            for (QuestionsRepository.ScheduledQuestion q : QuestionsRepository.loadOpenOrUpcoming(LocalDateTime.now())) {
+                schedule(q);
+            }
+            Log.info("[Scheduler] {} question(s) scheduled", byCode.size());
+        } catch (SQLException e) {
+            Log.error("[Scheduler] Could not load questions: {}", e.getMessage());
+        }
+    }
+
+    // Adds a question or moves an existing one to its new window
+    public static void schedule(QuestionsRepository.ScheduledQuestion q) {
+        Entry entry = new Entry(q);
+        Entry previous = byCode.put(q.code(), entry);
+        if (previous != null) cancelTimers(previous);
+        long now = System.currentTimeMillis();
+        long openIn = epochMillis(q.start()) - now;
+        long closeIn = epochMillis(q.end()) - now;
+        if (closeIn <= 0) {
+            byCode.remove(q.code(), entry);
+            return;
+        }
+        synchronized (entry) {
+            if (openIn <= 0) {
+                entry.state = State.OPEN;
+            } else {
+                entry.openTimer = wheel.schedule(openIn, () -> open(entry));
+            }
+            entry.closeTimer = wheel.schedule(closeIn, () -> close(entry));
+        }
+    }
+
+    // Drops a deleted question: no transitions, subscribers are discarded (answers still queued fail)
+    public static void remove(String code) {
+        Entry e = byCode.remove(code);
+        if (e != null) {
+            cancelTimers(e);
+            synchronized (e) {
+                e.state = State.CLOSED;
+            }
+        }
+        subscribers.remove(code);
+    }
+
+    public static State stateOf(String code) {
+        Entry e = byCode.get(code);
+        return e == null ? State.CLOSED : e.state;
+    }
+
+    // True while the question is open or upcoming, or closed with answers not yet written
+    public static boolean isTracked(String code) {
+        return byCode.containsKey(code);
+    }
+
+    public static void subscribe(String code, ClientHandler handler) {
+        subscribers.computeIfAbsent(code, k -> ConcurrentHashMap.newKeySet()).add(handler);
+    }
+
+    public static void unsubscribeAll(ClientHandler handler) {
+        subscribers.values().forEach(set -> set.remove(handler));
+    }
+
+    // Returns "OK" once the answer is committed, else "NOT_OPEN", "INVALID_OPTION" or "NOT_SAVED"
+    // (the DB write failed or took longer than pd.scheduler.commitTimeoutMs; resending is safe).
+    // Blocks the calling thread until the committer has written the answer.
+    public static String submitAnswer(String code, long studentId, String option) {
+        Entry e = byCode.get(code);
+        if (e == null || e.state != State.OPEN) return "NOT_OPEN";
+        String id = option.trim().toLowerCase();
+        if (id.length() != 1 || id.charAt(0) < 'a' || id.charAt(0) >= 'a' + e.question.optionCount()) return "INVALID_OPTION";
+        CompletableFuture<Boolean> saved = new CompletableFuture<>();
+        synchronized (e) {
+            if (e.state != State.OPEN) return "NOT_OPEN"; // closed while we were checking
+            uncommitted.incrementAndGet();
+            pending.add(new Pending(e, studentId, id, saved, false));
+        }
+        ANSWERS_BUFFERED.inc();
+        try {
+            return saved.get(COMMIT_TIMEOUT_MS, TimeUnit.MILLISECONDS) ? "OK" : "NOT_SAVED";
+        } catch (TimeoutException | ExecutionException ex) {
+            return "NOT_SAVED";
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return "NOT_SAVED";
+        }
+    }
+
+    // Waits (up to pd.scheduler.commitTimeoutMs) for the queued answers to be written (shutdown).
+    // Returns how many were still unwritten; none of them had been acknowledged.
+    public static int flushAll() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COMMIT_TIMEOUT_MS);
+        while (uncommitted.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        return uncommitted.get();
+    }
+
+    private static void open(Entry e) {
+        synchronized (e) {
+            e.state = State.OPEN;
+        }
+        notifySubscribers(e.question.code(), new Message("QUESTION_OPEN", e.question.code()));
+    }
+
+    // Runs on the wheel thread. The marker goes behind every answer accepted before the state flipped,
+    // so the committer finishes the question only after writing them.
+    private static void close(Entry e) {
+        synchronized (e) {
+            e.state = State.CLOSED;
+            pending.add(new Pending(e, 0, null, null, true));
+        }
+    }
+
+    // The committer: takes everything queued, writes the answers one transaction per question, then
+    // completes their futures and finishes the questions whose close marker it took
+    private static void commitLoop() {
+        List<Pending> group = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(pending.take());
+            } catch (InterruptedException ex) {
+                return;
+            }
+            pending.drainTo(group, MAX_GROUP - 1);
+            long start = System.nanoTime();
+            commit(group);
+            GROUP_COMMIT.recordSince(start);
+            group.clear();
+        }
+    }
+
+    private static void commit(List<Pending> group) {
+        // questionId -> studentId -> answer; the latest answer of a student wins
+        Map<Long, Map<Long, Pending>> byQuestion = new LinkedHashMap<>();
+        for (Pending p : group) {
+            if (!p.closing()) byQuestion.computeIfAbsent(p.entry().question.id(), k -> new HashMap<>()).put(p.studentId(), p);
+        }
+        for (Map<Long, Pending> answers : byQuestion.values()) {
+            QuestionsRepository.ScheduledQuestion q = answers.values().iterator().next().entry().question;
+            boolean ok;
+            try {
+                if (!ReplicaState.isPrincipal()) throw new SQLException("not the principal server");
+                Map<Long, String> rows = new HashMap<>();
+                answers.forEach((student, p) -> rows.put(student, p.option()));
+                QuestionsRepository.saveAnswers(q.id(), rows);
+                ResultCache.invalidate(q.code());
+                ANSWERS_FLUSHED.add(rows.size());
+                ok = true;
+            } catch (SQLException ex) {
+                FLUSH_FAILURES.inc();
+                Log.error("[Scheduler] Could not save {} answer(s) for question {}: {}", answers.size(), q.code(), ex.getMessage());
+                ok = false;
+            }
+            for (Pending p : group) {
+                if (!p.closing() && p.entry().question.id() == q.id()) {
+                    // a superseded answer of the same student is saved or lost with the one that replaced it
+                    p.saved().complete(ok);
+                    uncommitted.decrementAndGet();
+                }
+            }
+        }
+        for (Pending p : group) {
+            if (!p.closing()) continue;
+            String code = p.entry().question.code();
+            if (!byCode.remove(code, p.entry())) continue; // deleted, or rescheduled meanwhile
+            notifySubscribers(code, new Message("QUESTION_CLOSED", code));
+            subscribers.remove(code);
+        }
+    }
+
+    private static void notifySubscribers(String code, Message msg) {
+        Set<ClientHandler> set = subscribers.get(code);
+        if (set == null) return;
+        for (ClientHandler h : set) {
+            try {
+                h.send(msg);
+            } catch (IOException ex) {
+                set.remove(h);
+            }
+        }
+    }
+
+    private static void cancelTimers(Entry e) {
+        synchronized (e) {
+            if (e.openTimer != null) e.openTimer.cancel();
+            if (e.closeTimer != null) e.closeTimer.cancel();
+        }
+    }
+
+    private static long epochMillis(LocalDateTime t) {
+        return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,476 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+import pt.isec.pd.utils.RequestTrace;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class QuestionsRepository {
+    private static final Metrics.Histogram CREATE_QUESTIONS = Metrics.timer("repo.createQuestions");
+    private static final Metrics.Histogram SAVE_ANSWERS = Metrics.timer("repo.saveAnswers");
+    private static final Metrics.Histogram SEARCH = Metrics.timer("repo.searchQuestions");
+    private static final Metrics.Histogram LIST = Metrics.timer("repo.listQuestions");
+    private static final Metrics.Histogram RESULTS = Metrics.timer("repo.questionResults");
+
+    // stored format of start/end (sorts as text and is understood by SQLite date functions)
+    public static final DateTimeFormatter DB_DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter INPUT_DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd[ ]['T']HH:mm[:ss]");
+    // a question and what refers to it, children first (foreign keys are on)
+    private static final String[] DELETE_QUESTION = {
+        "DELETE FROM Answer WHERE question_id = ?",
+        "DELETE FROM Option WHERE question_id = ?",
+        "DELETE FROM Question WHERE id_question = ?"
+    };
+
+    public record NewQuestion(String text, LocalDateTime start, LocalDateTime end, String correct, List<String> options) { }
+
+    public record QuestionMatch(long id, String code, String start, String end, String text) { }
+
+    public record QuestionListing(long id, String code, String start, String end, long answers, String text) { }
+
+    public enum ListFilter { ALL, ACTIVE, FUTURE, EXPIRED }
+
+    // content is the QUESTION_RESULTS reply; closed tells whether it can still change
+    public record QuestionResults(long id, String ownerEmail, boolean closed, String content) { }
+
+    // what the scheduler needs to know about a question
+    public record ScheduledQuestion(long id, String code, LocalDateTime start, LocalDateTime end, int optionCount) { }
+
+    // text|start|end|correctOption|optionA|optionB[|...]  options are identified a, b, c, ... in order
+    public static NewQuestion parseQuestion(String line) {
+        String[] parts = line.split("\\|");
+        if (parts.length < 6) {
+            throw new IllegalArgumentException("Expected text|start|end|correct|optionA|optionB[|...]");
+        }
+        String text = parts[0].trim();
+        if (text.isEmpty()) throw new IllegalArgumentException("Question text is required");
+        LocalDateTime start = parseDateTime(parts[1]);
+        LocalDateTime end = parseDateTime(parts[2]);
+        if (!end.isAfter(start)) throw new IllegalArgumentException("End must be after start");
+
+        List<String> options = new ArrayList<>();
+        for (int i = 4; i < parts.length; i++) {
+            String option = parts[i].trim();
+            if (option.isEmpty()) throw new IllegalArgumentException("Empty option " + optionId(i - 4));
+            options.add(option);
+        }
+        if (options.size() > 26) throw new IllegalArgumentException("At most 26 options");
+        String correct = parts[3].trim().toLowerCase();
+        if (correct.length() != 1 || correct.charAt(0) < 'a' || correct.charAt(0) >= 'a' + options.size()) {
+            throw new IllegalArgumentException("Correct option must be one of a-" + optionId(options.size() - 1));
+        }
+        return new NewQuestion(text, start, end, correct, options);
+    }
+
+    public static LocalDateTime parseDateTime(String value) {
+        try {
+            return LocalDateTime.parse(value.trim(), INPUT_DATETIME);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date/time '" + value.trim() + "', expected yyyy-MM-dd HH:mm");
+        }
+    }
+
+    static String optionId(int index) {
+        return String.valueOf((char) ('a' + index));
+    }
+
+    // Inserts all questions with their options in one transaction.
+    // Returns "OK|id:code,id:code,..." or an error code.
+    public static String createQuestions(String teacherEmail, List<NewQuestion> questions) {
+        long start = System.nanoTime();
+        try {
+            return doCreateQuestions(teacherEmail, questions);
+        } finally {
+            CREATE_QUESTIONS.recordSince(start);
+        }
+    }
+
+    // ids are assigned here (so options can be batched with their question), hence one writer at a time
+    private static synchronized String doCreateQuestions(String teacherEmail, List<NewQuestion> questions) {
+        if (questions.isEmpty()) return "INVALID_INPUT";
+
+        try (Connection c = ConnectDB.getConnection()) {
+            long teacherId = teacherId(c, teacherEmail);
+            if (teacherId < 0) return "TEACHER_NOT_FOUND";
+
+            c.setAutoCommit(false);
+            try (PreparedStatement insertQuestion = c.prepareStatement(
+                         "INSERT INTO Question (id_question, teacher_id, question_text, access_code, start_datetime, end_datetime) VALUES (?, ?, ?, ?, ?, ?)");
+                 PreparedStatement insertOption = c.prepareStatement(
+                         "INSERT INTO Option (question_id, identifier, option_text, is_correct) VALUES (?, ?, ?, ?)")) {
+
+                long id = lastQuestionId(c);
+                List<ScheduledQuestion> scheduled = new ArrayList<>(questions.size());
+                StringBuilder created = new StringBuilder("OK|");
+                for (NewQuestion q : questions) {
+                    id++;
+                    String code = AccessCodes.next(c);
+                    insertQuestion.setLong(1, id);
+                    insertQuestion.setLong(2, teacherId);
+                    insertQuestion.setString(3, q.text());
+                    insertQuestion.setString(4, code);
+                    insertQuestion.setString(5, q.start().format(DB_DATETIME));
+                    insertQuestion.setString(6, q.end().format(DB_DATETIME));
+                    insertQuestion.addBatch();
+
+                    for (int i = 0; i < q.options().size(); i++) {
+                        String identifier = optionId(i);
+                        insertOption.setLong(1, id);
+                        insertOption.setString(2, identifier);
+                        insertOption.setString(3, q.options().get(i));
+                        insertOption.setBoolean(4, identifier.equals(q.correct()));
+                        insertOption.addBatch();
+                    }
+                    scheduled.add(new ScheduledQuestion(id, code, q.start(), q.end(), q.options().size()));
+                    if (created.length() > 3) created.append(',');
+                    created.append(id).append(':').append(code);
+                }
+
+                long queryStart = RequestTrace.start();
+                insertQuestion.executeBatch();
+                insertOption.executeBatch();
+                c.commit();
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+                scheduled.forEach(QuestionScheduler::schedule);
+                return created.toString();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            Log.error("SQL Error creating questions: {}", e.getMessage());
+            return "SQL_ERROR: " + e.getMessage();
+        }
+    }
+
+    static long teacherId(Connection c, String email) throws SQLException {
+        if (email == null) return -1;
+        try (PreparedStatement ps = c.prepareStatement("SELECT id_teacher FROM Docentes WHERE email = ?")) {
+            ps.setString(1, email.toLowerCase());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        }
+    }
+
+    // highest id ever handed out, including rows that were deleted since (AUTOINCREMENT never reuses ids)
+    static long lastQuestionId(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery(
+                     "SELECT MAX(COALESCE((SELECT seq FROM sqlite_sequence WHERE name = 'Question'), 0),"
+                             + " COALESCE((SELECT MAX(id_question) FROM Question), 0))")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Questions that haven't closed yet, for the scheduler
+    public static List<ScheduledQuestion> loadOpenOrUpcoming(LocalDateTime now) throws SQLException {
+        List<ScheduledQuestion> result = new ArrayList<>();
+        try (Connection c = ConnectDB.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT q.id_question, q.access_code, q.start_datetime, q.end_datetime,"
+                             + " (SELECT COUNT(*) FROM Option o WHERE o.question_id = q.id_question)"
+                             + " FROM Question q WHERE q.end_datetime > ?")) {
+            ps.setString(1, now.format(DB_DATETIME));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    result.add(new ScheduledQuestion(rs.getLong(1), rs.getString(2),
+                            LocalDateTime.parse(rs.getString(3), DB_DATETIME),
+                            LocalDateTime.parse(rs.getString(4), DB_DATETIME), rs.getInt(5)));
+                }
+            }
+        }
+        return result;
+    }
+
+    // Changes text and/or window of a question that hasn't started yet.
+    // Returns "OK", "NOT_FOUND", "NOT_OWNER", "ALREADY_STARTED", "INVALID_INPUT" or "SQL_ERROR: ...".
+    public static synchronized String updateQuestion(String teacherEmail, long id, String text,
+                                                     LocalDateTime start, LocalDateTime end) {
+        if (!end.isAfter(start) || !start.isAfter(LocalDateTime.now())) return "INVALID_INPUT";
+
+        try (Connection c = ConnectDB.getConnection()) {
+            String code;
+            int optionCount;
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT q.access_code, q.start_datetime, d.email,"
+                            + " (SELECT COUNT(*) FROM Option o WHERE o.question_id = q.id_question)"
+                            + " FROM Question q JOIN Docentes d ON d.id_teacher = q.teacher_id WHERE q.id_question = ?")) {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return "NOT_FOUND";
+                    if (!rs.getString(3).equalsIgnoreCase(teacherEmail)) return "NOT_OWNER";
+                    if (!LocalDateTime.parse(rs.getString(2), DB_DATETIME).isAfter(LocalDateTime.now())) return "ALREADY_STARTED";
+                    code = rs.getString(1);
+                    optionCount = rs.getInt(4);
+                }
+            }
+
+            String sql = text == null || text.isBlank()
+                    ? "UPDATE Question SET start_datetime = ?, end_datetime = ? WHERE id_question = ?"
+                    : "UPDATE Question SET start_datetime = ?, end_datetime = ?, question_text = ? WHERE id_question = ?";
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                int i = 1;
+                ps.setString(i++, start.format(DB_DATETIME));
+                ps.setString(i++, end.format(DB_DATETIME));
+                if (text != null && !text.isBlank()) ps.setString(i++, text.trim());
+                ps.setLong(i, id);
+                long queryStart = RequestTrace.start();
+                ps.executeUpdate();
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+            }
+            QuestionScheduler.schedule(new ScheduledQuestion(id, code, start, end, optionCount));
+            ResultCache.invalidate(code);
+            return "OK";
+        } catch (SQLException e) {
+            Log.error("SQL Error updating question {}: {}", id, e.getMessage());
+            return "SQL_ERROR: " + e.getMessage();
+        }
+    }
+
+    // Writes one group commit of answers to a question (studentId -> option), in one transaction
+    public static void saveAnswers(long questionId, Map<Long, String> answers) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection c = ConnectDB.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(
+                    // an upsert, not INSERT OR REPLACE: the replace's implicit delete would skip the stats triggers
+                    "INSERT INTO Answer (student_id, question_id, selected_option) VALUES (?, ?, ?)"
+                            + " ON CONFLICT (student_id, question_id) DO UPDATE SET selected_option = excluded.selected_option,"
+                            + " realized_at = CURRENT_TIMESTAMP")) {
+                for (Map.Entry<Long, String> e : answers.entrySet()) {
+                    ps.setLong(1, e.getKey());
+                    ps.setLong(2, questionId);
+                    ps.setString(3, e.getValue());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        } finally {
+            SAVE_ANSWERS.recordSince(start);
+        }
+    }
+
+    // The teacher's questions matching every keyword (a trailing * matches a prefix), best match first.
+    // Returns up to pageSize + 1 rows so the caller can tell whether there is another page.
+    public static List<QuestionMatch> searchQuestions(String teacherEmail, String keywords, int page, int pageSize)
+            throws SQLException {
+        List<QuestionMatch> result = new ArrayList<>();
+        String match = toMatchExpression(keywords);
+        if (match.isEmpty()) return result;
+        long start = System.nanoTime();
+        try (Connection c = ConnectDB.getConnection()) {
+            long teacherId = teacherId(c, teacherEmail);
+            if (teacherId < 0) return result;
+            // CROSS JOIN keeps the index as the outer loop; left to itself SQLite walks the teacher's
+            // questions by idx_question_teacher and runs the MATCH once per question
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT q.id_question, q.access_code, q.start_datetime, q.end_datetime, q.question_text"
+                            + " FROM QuestionFts f CROSS JOIN Question q ON q.id_question = f.rowid"
+                            + " WHERE QuestionFts MATCH ? AND q.teacher_id = ?"
+                            + " ORDER BY f.rank, q.id_question DESC LIMIT ? OFFSET ?")) {
+                ps.setString(1, match);
+                ps.setLong(2, teacherId);
+                ps.setInt(3, pageSize + 1);
+                ps.setLong(4, (long) page * pageSize);
+                long queryStart = RequestTrace.start();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(new QuestionMatch(rs.getLong(1), rs.getString(2), rs.getString(3),
+                                rs.getString(4), rs.getString(5)));
+                    }
+                }
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+            }
+        } finally {
+            SEARCH.recordSince(start);
+        }
+        return result;
+    }
+
+    // Quotes each keyword so user input can't be read as FTS5 query syntax
+    static String toMatchExpression(String keywords) {
+        StringBuilder match = new StringBuilder();
+        for (String word : keywords.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            String term = (prefix ? word.substring(0, word.length() - 1) : word).replace("\"", "\"\"");
+            if (term.isEmpty()) continue;
+            if (!match.isEmpty()) match.append(' ');
+            match.append('"').append(term).append('"');
+            if (prefix) match.append('*');
+        }
+        return match.toString();
+    }
+
+    // One page of the teacher's questions, newest first, with ids below afterId (0 = from the newest).
+    // Keyset pagination: the page is read straight off the (teacher_id, id_question) index, so page
+    // 1000 costs the same as page 1. Returns up to pageSize + 1 rows so the caller can tell if more follow.
+    public static List<QuestionListing> listQuestions(String teacherEmail, ListFilter filter, long afterId, int pageSize)
+            throws SQLException {
+        List<QuestionListing> result = new ArrayList<>(pageSize + 1);
+        String now = LocalDateTime.now().format(DB_DATETIME);
+        String condition = switch (filter) {
+            case ALL -> "";
+            case ACTIVE -> " AND q.start_datetime <= ? AND q.end_datetime > ?";
+            case FUTURE -> " AND q.start_datetime > ?";
+            case EXPIRED -> " AND q.end_datetime <= ?";
+        };
+        long start = System.nanoTime();
+        try (Connection c = ConnectDB.getConnection()) {
+            long teacherId = teacherId(c, teacherEmail);
+            if (teacherId < 0) return result;
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT q.id_question, q.access_code, q.start_datetime, q.end_datetime, COALESCE(s.answers, 0), q.question_text"
+                            + " FROM Question q LEFT JOIN QuestionStats s ON s.question_id = q.id_question"
+                            + " WHERE q.teacher_id = ? AND q.id_question < ?" + condition
+                            + " ORDER BY q.id_question DESC LIMIT ?")) {
+                int p = 1;
+                ps.setLong(p++, teacherId);
+                ps.setLong(p++, afterId > 0 ? afterId : Long.MAX_VALUE);
+                switch (filter) {
+                    case ACTIVE -> {
+                        ps.setString(p++, now);
+                        ps.setString(p++, now);
+                    }
+                    case FUTURE, EXPIRED -> ps.setString(p++, now);
+                    default -> { }
+                }
+                ps.setInt(p, pageSize + 1);
+                long queryStart = RequestTrace.start();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(new QuestionListing(rs.getLong(1), rs.getString(2), rs.getString(3),
+                                rs.getString(4), rs.getLong(5), rs.getString(6)));
+                    }
+                }
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+            }
+        } finally {
+            LIST.recordSince(start);
+        }
+        return result;
+    }
+
+    // Results of a question, or null if there is no question with that code. Content:
+    //   id|code|start|end|text
+    //   answers|a=12*,b=3,...            (* marks the correct option)
+    //   student_number|name|email|option|1 or 0 (correct)   one line per answer
+    public static QuestionResults loadResults(String code) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection c = ConnectDB.getConnection()) {
+            long id;
+            String owner;
+            LocalDateTime end;
+            StringBuilder sb = new StringBuilder();
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT q.id_question, d.email, q.start_datetime, q.end_datetime, q.question_text"
+                            + " FROM Question q JOIN Docentes d ON d.id_teacher = q.teacher_id WHERE q.access_code = ?")) {
+                ps.setString(1, code);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    id = rs.getLong(1);
+                    owner = rs.getString(2);
+                    end = LocalDateTime.parse(rs.getString(4), DB_DATETIME);
+                    sb.append(id).append('|').append(code).append('|').append(rs.getString(3)).append('|')
+                            .append(rs.getString(4)).append('|').append(rs.getString(5));
+                }
+            }
+
+            long queryStart = RequestTrace.start();
+            long answers = 0;
+            StringBuilder distribution = new StringBuilder();
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT o.identifier, o.is_correct, COUNT(a.id_answer) FROM Option o"
+                            + " LEFT JOIN Answer a ON a.question_id = o.question_id AND a.selected_option = o.identifier"
+                            + " WHERE o.question_id = ? GROUP BY o.identifier ORDER BY o.identifier")) {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        answers += rs.getLong(3);
+                        if (!distribution.isEmpty()) distribution.append(',');
+                        distribution.append(rs.getString(1)).append('=').append(rs.getLong(3));
+                        if (rs.getBoolean(2)) distribution.append('*');
+                    }
+                }
+            }
+            sb.append('\n').append(answers).append('|').append(distribution);
+
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT s.student_number, s.name, s.email, a.selected_option, COALESCE(o.is_correct, 0)"
+                            + " FROM Answer a JOIN Student s ON s.id_student = a.student_id"
+                            + " LEFT JOIN Option o ON o.question_id = a.question_id AND o.identifier = a.selected_option"
+                            + " WHERE a.question_id = ? ORDER BY s.student_number")) {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        sb.append('\n').append(rs.getString(1)).append('|').append(rs.getString(2)).append('|')
+                                .append(rs.getString(3)).append('|').append(rs.getString(4)).append('|')
+                                .append(rs.getBoolean(5) ? 1 : 0);
+                    }
+                }
+            }
+            RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+            return new QuestionResults(id, owner, !end.isAfter(LocalDateTime.now()), sb.toString());
+        } finally {
+            RESULTS.recordSince(start);
+        }
+    }
+
+    // Deletes a question with its options and answers.
+    // Returns "OK", "NOT_FOUND", "NOT_OWNER" or "SQL_ERROR: ...".
+    public static synchronized String deleteQuestion(String teacherEmail, long id) {
+        try (Connection c = ConnectDB.getConnection()) {
+            String code;
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT q.access_code, d.email FROM Question q JOIN Docentes d ON d.id_teacher = q.teacher_id"
+                            + " WHERE q.id_question = ?")) {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return "NOT_FOUND";
+                    if (!rs.getString(2).equalsIgnoreCase(teacherEmail)) return "NOT_OWNER";
+                    code = rs.getString(1);
+                }
+            }
+
+            c.setAutoCommit(false);
+            long queryStart = RequestTrace.start();
+            try {
+                // the stats and search triggers follow the deletes
+                for (String sql : DELETE_QUESTION) {
+                    try (PreparedStatement ps = c.prepareStatement(sql)) {
+                        ps.setLong(1, id);
+                        ps.executeUpdate();
+                    }
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+            }
+            QuestionScheduler.remove(code);
+            ResultCache.invalidate(code);
+            return "OK";
+        } catch (SQLException e) {
+            Log.error("SQL Error deleting question {}: {}", id, e.getMessage());
+            return "SQL_ERROR: " + e.getMessage();
+        }
+    }
+}
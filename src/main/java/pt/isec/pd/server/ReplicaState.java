@@ -0,0 +1,72 @@
+package pt.isec.pd.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Replication view shared by the heartbeat sender/listener and the backup connector
+public final class ReplicaState {
+    // the principal's copy address and whether it is this server, swapped together
+    private static final AtomicReference<Principal> principal = new AtomicReference<>(null);
+    private static volatile int localCopyPort = -1;
+    // version (db file timestamp) of the last copy applied locally
+    private static volatile long replicatedVersion = 0;
+
+    private ReplicaState() { }
+
+    private record Principal(String copyAddr, boolean local) { }
+
+    public static void setLocalCopyPort(int copyPort) {
+        localCopyPort = copyPort;
+    }
+
+    public static String getPrincipal() {
+        Principal p = principal.get();
+        return p == null ? null : p.copyAddr();
+    }
+
+    // returns the previous principal
+    public static String setPrincipal(String copyAddr) {
+        Principal current = principal.get();
+        Principal next = copyAddr == null || copyAddr.isBlank() ? null
+                : current != null && current.copyAddr().equals(copyAddr) ? current // every heartbeat reply repeats it
+                : new Principal(copyAddr, isLocalAddress(copyAddr));
+        Principal prev = principal.getAndSet(next);
+        return prev == null ? null : prev.copyAddr();
+    }
+
+    public static boolean isPrincipal() {
+        Principal p = principal.get();
+        return p != null && p.local();
+    }
+
+    // a principal is known and it is not this server, so local changes must be refused
+    public static boolean isBackup() {
+        Principal p = principal.get();
+        return p != null && !p.local();
+    }
+
+    // host:port names this server when the port is our copy port and the host one of our interfaces
+    // (the DS reports the address it saw our heartbeats come from, so the port alone is ambiguous
+    // across machines)
+    private static boolean isLocalAddress(String addr) {
+        int colon = addr.lastIndexOf(':');
+        if (colon <= 0) return false;
+        try {
+            if (Integer.parseInt(addr.substring(colon + 1)) != localCopyPort) return false;
+            InetAddress host = InetAddress.getByName(addr.substring(0, colon));
+            return host.isLoopbackAddress() || host.isAnyLocalAddress() || NetworkInterface.getByInetAddress(host) != null;
+        } catch (NumberFormatException | IOException e) {
+            return false;
+        }
+    }
+
+    public static long getReplicatedVersion() {
+        return replicatedVersion;
+    }
+
+    public static void setReplicatedVersion(long version) {
+        replicatedVersion = version;
+    }
+}
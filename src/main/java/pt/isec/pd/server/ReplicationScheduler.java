@@ -0,0 +1,196 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+import pt.isec.pd.utils.TokenBucket;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs DB copy transfers on their own low-priority threads, all sharing one bandwidth budget.
+// Transfers requested while a copy of the same version is in flight are served from the same snapshot.
+public class ReplicationScheduler {
+    private static final long DEFAULT_BYTES_PER_SECOND = 4L * 1024 * 1024;
+    private static final int DEFAULT_MAX_PARALLEL = 4;
+    // while clients have requests in flight, replication only gets 1/CLIENT_BUSY_FACTOR of the budget
+    private static final int CLIENT_BUSY_FACTOR = 4;
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final Metrics.Histogram TRANSFER_TIMER = Metrics.timer("replication.transfer");
+    private static final Metrics.Counter BYTES_SENT = Metrics.counter("replication.bytesSent");
+    private static final Metrics.Counter UP_TO_DATE = Metrics.counter("replication.upToDate");
+    private static final Metrics.Counter SNAPSHOTS = Metrics.counter("replication.snapshots");
+
+    private final String dbFilePath;
+    private final TokenBucket bucket;
+    private final ExecutorService executor;
+    private final Map<Integer, Transfer> activeTransfers = new ConcurrentHashMap<>();
+    private final AtomicInteger transferIds = new AtomicInteger();
+
+    private Snapshot snapshot;
+    private int snapshotUsers;
+
+    public ReplicationScheduler(String dbFilePath) {
+        this.dbFilePath = dbFilePath;
+        long bytesPerSecond = Long.getLong("pd.replication.bytesPerSecond", DEFAULT_BYTES_PER_SECOND);
+        int maxParallel = Integer.getInteger("pd.replication.maxParallel", DEFAULT_MAX_PARALLEL);
+        // a burst of one second worth of data, but never less than one chunk
+        this.bucket = new TokenBucket(bytesPerSecond, Math.max(bytesPerSecond, CHUNK_SIZE));
+
+        AtomicInteger threadIds = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxParallel, r -> {
+            Thread t = new Thread(r, "replication-" + threadIds.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        Metrics.gauge("replication.activeTransfers", activeTransfers::size);
+        Log.info("[Replication] Budget {} B/s, up to {} parallel copies", bytesPerSecond, maxParallel);
+    }
+
+    public void submit(Socket socket) {
+        executor.submit(new SendDataBaseCopy(socket, this));
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    String getDbFilePath() {
+        return dbFilePath;
+    }
+
+    // Blocks until the shared budget allows sending `bytes`; client traffic has priority
+    void throttle(int bytes) throws InterruptedException {
+        bucket.acquire(ClientManager.hasActiveRequests() ? (double) bytes * CLIENT_BUSY_FACTOR : bytes);
+    }
+
+    // Returns a consistent copy of the DB, taking a new one only when configuration.database_version
+    // (bumped by every write, see DBSchema) moved on. Every call must be paired with releaseSnapshot().
+    synchronized Snapshot acquireSnapshot() throws IOException, SQLException {
+        // advertised version, read before the copy so the copy is never older than it claims
+        long version = Path.of(dbFilePath).toFile().lastModified();
+        long dbVersion;
+        try (Connection c = ConnectDB.getReadOnlyConnection()) {
+            dbVersion = readDbVersion(c);
+        }
+        if (snapshot == null || snapshot.dbVersion() != dbVersion) {
+            snapshot = takeSnapshot(version);
+        } else if (snapshot.version() != version) {
+            // same content, the file was only touched: re-label it so the backup stops asking
+            snapshot = new Snapshot(version, dbVersion, snapshot.data());
+        }
+        snapshotUsers++;
+        return snapshot;
+    }
+
+    // VACUUM INTO copies the DB inside one read transaction, so a concurrent write can't tear it;
+    // the version is then read from the copy itself
+    private Snapshot takeSnapshot(long version) throws IOException, SQLException {
+        Path db = Path.of(dbFilePath).toAbsolutePath();
+        Path tmp = Files.createTempFile(db.getParent(), "snapshot-", ".db");
+        try {
+            Files.delete(tmp); // VACUUM INTO won't write over an existing file
+            try (Connection c = ConnectDB.getReadOnlyConnection();
+                 Statement st = c.createStatement()) {
+                st.execute("VACUUM INTO '" + tmp.toString().replace("'", "''") + "'");
+            }
+            long dbVersion;
+            try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + tmp)) {
+                dbVersion = readDbVersion(c);
+            }
+            SNAPSHOTS.inc();
+            return new Snapshot(version, dbVersion, Files.readAllBytes(tmp));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static long readDbVersion(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT database_version FROM configuration LIMIT 1")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    synchronized void releaseSnapshot() {
+        if (--snapshotUsers == 0) {
+            snapshot = null; // let the bytes go as soon as nobody is copying
+        }
+    }
+
+    Transfer startTransfer(String remote, long version, long totalBytes) {
+        Transfer t = new Transfer(transferIds.incrementAndGet(), remote, version, totalBytes, System.nanoTime());
+        activeTransfers.put(t.id, t);
+        return t;
+    }
+
+    void finishTransfer(Transfer t) {
+        activeTransfers.remove(t.id);
+        BYTES_SENT.add(t.sentBytes.get());
+        TRANSFER_TIMER.recordSince(t.startNanos);
+    }
+
+    void upToDate() {
+        UP_TO_DATE.inc();
+    }
+
+    public List<String> progressReport() {
+        List<String> lines = new ArrayList<>();
+        for (Transfer t : activeTransfers.values()) {
+            lines.add(t.toString());
+        }
+        return lines;
+    }
+
+    // version is the file timestamp sent to backups, dbVersion the configuration.database_version copied
+    record Snapshot(long version, long dbVersion, byte[] data) { }
+
+    static final class Transfer {
+        final int id;
+        final String remote;
+        final long version;
+        final long totalBytes;
+        final long startNanos;
+        final AtomicLong sentBytes = new AtomicLong();
+
+        Transfer(int id, String remote, long version, long totalBytes, long startNanos) {
+            this.id = id;
+            this.remote = remote;
+            this.version = version;
+            this.totalBytes = totalBytes;
+            this.startNanos = startNanos;
+        }
+
+        int percent() {
+            return totalBytes == 0 ? 100 : (int) (sentBytes.get() * 100 / totalBytes);
+        }
+
+        long bytesPerSecond() {
+            long elapsed = System.nanoTime() - startNanos;
+            return elapsed <= 0 ? 0 : sentBytes.get() * 1_000_000_000L / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return "copy#" + id + " to " + remote + " v" + version + ": " + sentBytes.get() + "/" + totalBytes
+                    + " bytes (" + percent() + "%, " + bytesPerSecond() + " B/s)";
+        }
+    }
+}
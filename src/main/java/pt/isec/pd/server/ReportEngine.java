@@ -0,0 +1,261 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.common.Message;
+import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+// Teacher reports over many questions (distribution, correctness, participation per question).
+// The question list is split recursively on a dedicated fork-join pool; each leaf reads its share
+// of questions on its own read-only connection and the partial results are concatenated in order.
+// Rows are streamed back in REPORT_ROWS chunks and closed by REPORT_END with the totals.
+// The same report runs on the archive file instead of the hot DB for archived questions (ArchiveJob);
+// participation is then still measured against the students registered now.
+// To keep reports from hurting live answering the pool is small (pd.report.parallelism, default
+// half the cores) and at most pd.report.maxJobs (2) reports run at once; more are refused.
+public final class ReportEngine {
+    private static final int PARALLELISM = Integer.getInteger("pd.report.parallelism",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int MAX_JOBS = Integer.getInteger("pd.report.maxJobs", 2);
+    private static final Semaphore JOBS = new Semaphore(MAX_JOBS);
+    // questions read by one leaf task (one connection)
+    private static final int LEAF_SIZE = 32;
+    // report rows per REPORT_ROWS message
+    private static final int ROWS_PER_MESSAGE = 100;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("report-" + t.getPoolIndex());
+        return t;
+    }, null, false);
+
+    private static final Metrics.Histogram REPORT = Metrics.timer("report.generate");
+    private static final Metrics.Counter REFUSED = Metrics.counter("report.refused");
+
+    static {
+        Metrics.gauge("report.running", () -> MAX_JOBS - JOBS.availablePermits());
+    }
+
+    private ReportEngine() { }
+
+    private record QuestionInfo(long id, String code, String text, String start, String end) { }
+
+    // where the questions are read from: the hot DB or the archive
+    private interface Source {
+        Connection open() throws SQLException;
+    }
+
+    // Starts a report for the teacher's questions starting in [from, to) (either may be null), from the
+    // archive when `archived`. Returns false, without starting anything, when too many reports are already running.
+    public static boolean submit(ClientHandler handler, String teacherEmail, LocalDateTime from, LocalDateTime to, boolean archived) {
+        Source source = archived ? () -> ConnectDB.getReadOnlyConnection(ArchiveJob.archiveFile()) : ConnectDB::getReadOnlyConnection;
+        if (!JOBS.tryAcquire()) {
+            REFUSED.inc();
+            return false;
+        }
+        try {
+            POOL.execute(() -> {
+                try {
+                    run(handler, source, teacherEmail, from, to);
+                } finally {
+                    JOBS.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            JOBS.release();
+            throw e;
+        }
+        return true;
+    }
+
+    private static void run(ClientHandler handler, Source source, String teacherEmail, LocalDateTime from, LocalDateTime to) {
+        long start = System.nanoTime();
+        try {
+            List<QuestionInfo> questions = new ArrayList<>();
+            long participants;
+            long students;
+            try (Connection c = source.open()) {
+                long teacherId = QuestionsRepository.teacherId(c, teacherEmail);
+                String range = " WHERE q.teacher_id = ? AND q.start_datetime >= ? AND q.start_datetime < ?";
+                String lower = from == null ? "" : from.format(QuestionsRepository.DB_DATETIME);
+                String upper = to == null ? "9999" : to.format(QuestionsRepository.DB_DATETIME);
+                try (PreparedStatement ps = c.prepareStatement(
+                        "SELECT q.id_question, q.access_code, q.question_text, q.start_datetime, q.end_datetime"
+                                + " FROM Question q" + range + " ORDER BY q.id_question")) {
+                    ps.setLong(1, teacherId);
+                    ps.setString(2, lower);
+                    ps.setString(3, upper);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            questions.add(new QuestionInfo(rs.getLong(1), rs.getString(2), rs.getString(3),
+                                    rs.getString(4), rs.getString(5)));
+                        }
+                    }
+                }
+                try (PreparedStatement ps = c.prepareStatement("SELECT COUNT(DISTINCT a.student_id) FROM Answer a"
+                        + " JOIN Question q ON q.id_question = a.question_id" + range)) {
+                    ps.setLong(1, teacherId);
+                    ps.setString(2, lower);
+                    ps.setString(3, upper);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        participants = rs.next() ? rs.getLong(1) : 0;
+                    }
+                }
+            }
+            try (Connection c = ConnectDB.getReadOnlyConnection();
+                 PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM Student");
+                 ResultSet rs = ps.executeQuery()) {
+                students = rs.next() ? rs.getLong(1) : 0;
+            }
+
+            List<String> rows = new QuestionsTask(source, questions, 0, questions.size(), students).invoke();
+
+            long answers = 0;
+            long correct = 0;
+            StringBuilder chunk = new StringBuilder();
+            for (int i = 0; i < rows.size(); i++) {
+                String row = rows.get(i);
+                String[] fields = row.split("\\|", 7);
+                answers += Long.parseLong(fields[4]);
+                correct += Long.parseLong(fields[5]);
+                if (!chunk.isEmpty()) chunk.append('\n');
+                chunk.append(row);
+                if ((i + 1) % ROWS_PER_MESSAGE == 0 || i == rows.size() - 1) {
+                    handler.send(new Message("REPORT_ROWS", chunk.toString()));
+                    chunk.setLength(0);
+                }
+            }
+            handler.send(new Message("REPORT_END",
+                    questions.size() + "|" + answers + "|" + correct + "|" + participants + "|" + students));
+            Log.info("[Report] {} question(s) for {} in {} ms", questions.size(), teacherEmail,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (SQLException | ReportException e) {
+            Log.error("[Report] Failed for {}: {}", teacherEmail, e.getMessage());
+            fail(handler, "A database error occurred on the server.");
+        } catch (RuntimeException e) {
+            // anything else must still end the report, or the client waits for REPORT_END forever
+            Log.error("[Report] Failed for {}: {}", teacherEmail, e.toString());
+            fail(handler, "The report could not be generated.");
+        } catch (IOException e) {
+            Log.warn("[Report] Client went away before the report for {} was sent: {}", teacherEmail, e.getMessage());
+        } finally {
+            REPORT.recordSince(start);
+        }
+    }
+
+    private static void fail(ClientHandler handler, String reason) {
+        try {
+            handler.send(new Message("REPORT_FAILURE", reason));
+        } catch (IOException ignored) {
+            // client gone
+        }
+    }
+
+    // Rows are split on '\n' and fields on '|', so the free text escapes those (and '%' itself, '\r')
+    // as %0A, %7C, %25, %0D
+    static String escapeField(String text) {
+        if (text == null) return "";
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            switch (ch) {
+                case '%' -> sb.append("%25");
+                case '|' -> sb.append("%7C");
+                case '\n' -> sb.append("%0A");
+                case '\r' -> sb.append("%0D");
+                default -> sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Rows for questions[from, to), in order; splits until a share fits one leaf
+    private static final class QuestionsTask extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Source source;
+        private final transient List<QuestionInfo> questions;
+        private final int from;
+        private final int to;
+        private final long students;
+
+        QuestionsTask(Source source, List<QuestionInfo> questions, int from, int to, long students) {
+            this.source = source;
+            this.questions = questions;
+            this.from = from;
+            this.to = to;
+            this.students = students;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (to - from <= LEAF_SIZE) {
+                return leaf();
+            }
+            int mid = (from + to) >>> 1;
+            QuestionsTask left = new QuestionsTask(source, questions, from, mid, students);
+            left.fork();
+            List<String> right = new QuestionsTask(source, questions, mid, to, students).compute();
+            List<String> rows = left.join();
+            rows.addAll(right);
+            return rows;
+        }
+
+        // id|code|start|end|answers|correct|participation%|a=12*,b=3|text   (* marks the correct option,
+        // text is escaped with escapeField)
+        private List<String> leaf() {
+            List<String> rows = new ArrayList<>(to - from);
+            try (Connection c = source.open();
+                 PreparedStatement options = c.prepareStatement(
+                         "SELECT o.identifier, o.is_correct, COUNT(a.id_answer) FROM Option o"
+                                 + " LEFT JOIN Answer a ON a.question_id = o.question_id AND a.selected_option = o.identifier"
+                                 + " WHERE o.question_id = ? GROUP BY o.identifier ORDER BY o.identifier")) {
+                for (int i = from; i < to; i++) {
+                    QuestionInfo q = questions.get(i);
+                    options.setLong(1, q.id());
+                    long answers = 0;
+                    long correct = 0;
+                    StringBuilder distribution = new StringBuilder();
+                    try (ResultSet rs = options.executeQuery()) {
+                        while (rs.next()) {
+                            long count = rs.getLong(3);
+                            answers += count;
+                            if (rs.getBoolean(2)) correct += count;
+                            if (!distribution.isEmpty()) distribution.append(',');
+                            distribution.append(rs.getString(1)).append('=').append(count);
+                            if (rs.getBoolean(2)) distribution.append('*');
+                        }
+                    }
+                    long participation = students == 0 ? 0 : Math.round(answers * 100.0 / students);
+                    rows.add(q.id() + "|" + q.code() + "|" + q.start() + "|" + q.end() + "|" + answers + "|" + correct
+                            + "|" + participation + "|" + distribution + "|" + escapeField(q.text()));
+                }
+            } catch (SQLException e) {
+                throw new ReportException(e);
+            }
+            return rows;
+        }
+    }
+
+    // carries an SQLException out of the fork-join tasks
+    private static final class ReportException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ReportException(SQLException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
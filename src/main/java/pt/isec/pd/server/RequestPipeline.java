@@ -0,0 +1,66 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Stage executors for client requests. Each class of work has its own fixed pool and bounded queue,
+// so a flood of one kind (e.g. logins hashing passwords) can't take the threads the others need:
+//   CPU    requests dominated by computation (token checks, waiting on password hashes); the
+//          hashing itself runs on HashExecutor, so its bound and SERVER_BUSY rejection still apply
+//   DB     requests dominated by SQLite I/O
+//   WRITE  outbound socket writes, one serial queue per connection on top of this pool
+// Sizes: pd.pipeline.<stage>.threads / pd.pipeline.<stage>.queue. A full queue rejects with
+// RejectedExecutionException; callers answer SERVER_BUSY.
+public final class RequestPipeline {
+    public enum Stage { CPU, DB, WRITE }
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final Map<Stage, ThreadPoolExecutor> executors = new EnumMap<>(Stage.class);
+
+    static {
+        executors.put(Stage.CPU, create(Stage.CPU, CORES, CORES * 16));
+        executors.put(Stage.DB, create(Stage.DB, Math.max(2, CORES), 256));
+        executors.put(Stage.WRITE, create(Stage.WRITE, Math.max(2, CORES / 2), 4096));
+    }
+
+    private RequestPipeline() { }
+
+    private static ThreadPoolExecutor create(Stage stage, int defaultThreads, int defaultQueue) {
+        String prefix = "pd.pipeline." + stage.name().toLowerCase();
+        int threads = Integer.getInteger(prefix + ".threads", defaultThreads);
+        int queue = Integer.getInteger(prefix + ".queue", defaultQueue);
+        AtomicInteger ids = new AtomicInteger();
+        String name = "stage-" + stage.name().toLowerCase() + "-";
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread t = new Thread(r, name + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        Metrics.gauge("pipeline." + stage.name().toLowerCase() + ".queued", () -> pool.getQueue().size());
+        Metrics.gauge("pipeline." + stage.name().toLowerCase() + ".active", pool::getActiveCount);
+        Log.info("[Pipeline] Stage {}: {} thread(s), queue {}", stage, threads, queue);
+        return pool;
+    }
+
+    public static Future<?> submit(Stage stage, Runnable task) {
+        return executors.get(stage).submit(task);
+    }
+
+    static void execute(Stage stage, Runnable task) {
+        executors.get(stage).execute(task);
+    }
+
+    // Tasks waiting in the request stages (reported to the DS as queue depth)
+    public static int backlog() {
+        return executors.get(Stage.CPU).getQueue().size() + executors.get(Stage.DB).getQueue().size();
+    }
+}
@@ -0,0 +1,90 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.common.Message;
+import pt.isec.pd.utils.Metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+
+// LRU of finished QUESTION_RESULTS replies, keyed by access code. Once a question has closed and
+// QuestionScheduler has written its last answers (each commit invalidates it), its results can only change
+// if the question is edited or deleted (both invalidate it too), so the reply is kept as the immutable
+// Message that goes out on the socket and a hit needs no DB access at all.
+// Bounded by an estimate of the bytes held (pd.resultCache.maxBytes, default 16 MiB), evicting the
+// least recently used entries; entries also expire after pd.resultCache.ttlMinutes (60) as a safety
+// net for changes made outside this server. Cleared when a DB copy or the archive job replaces rows.
+public final class ResultCache {
+    private static final long MAX_BYTES = Long.getLong("pd.resultCache.maxBytes", 16L * 1024 * 1024);
+    private static final long TTL_MS = Long.getLong("pd.resultCache.ttlMinutes", 60) * 60_000L;
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private static long bytes;
+    private static long generation;
+    // milliseconds clock, replaced by tests
+    static volatile LongSupplier clockMs = System::currentTimeMillis;
+
+    private static final Metrics.Counter HITS = Metrics.counter("resultCache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("resultCache.misses");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("resultCache.evictions");
+
+    static {
+        Metrics.gauge("resultCache.bytes", ResultCache::bytes);
+    }
+
+    private ResultCache() { }
+
+    public record Entry(long questionId, String ownerEmail, Message reply, long size, long expiresAt) { }
+
+    // Returns the cached reply, or null on a miss (read generation() before querying the DB)
+    public static synchronized Entry get(String code) {
+        Entry e = entries.get(code);
+        if (e != null && e.expiresAt() <= clockMs.getAsLong()) {
+            remove(code);
+            e = null;
+        }
+        if (e != null) HITS.inc(); else MISSES.inc();
+        return e;
+    }
+
+    public static synchronized long generation() {
+        return generation;
+    }
+
+    // Stores the reply of a closed question, unless the cache was invalidated since `readGeneration`
+    public static synchronized void put(String code, long questionId, String ownerEmail, Message reply, long readGeneration) {
+        if (readGeneration != generation) return;
+        // chars are two bytes, plus a rough allowance for the objects around them
+        long size = 2L * (reply.getType().length() + reply.getContent().length() + code.length() + ownerEmail.length()) + 160;
+        if (size > MAX_BYTES) return;
+        remove(code);
+        entries.put(code, new Entry(questionId, ownerEmail, reply, size, clockMs.getAsLong() + TTL_MS));
+        bytes += size;
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > MAX_BYTES && it.hasNext()) {
+            bytes -= it.next().size();
+            it.remove();
+            EVICTIONS.inc();
+        }
+    }
+
+    public static synchronized void invalidate(String code) {
+        generation++;
+        remove(code);
+    }
+
+    public static synchronized void clear() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    public static synchronized long bytes() {
+        return bytes;
+    }
+
+    private static void remove(String code) {
+        Entry old = entries.remove(code);
+        if (old != null) bytes -= old.size();
+    }
+}
@@ -1,19 +1,23 @@
 package pt.isec.pd.server;
 
 import pt.isec.pd.common.Message;
+import pt.isec.pd.utils.Log;
 
 import java.io.*;
 import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
 
 public class SendDataBaseCopy implements Runnable {
+    private static final long PROGRESS_LOG_INTERVAL_NS = 2_000_000_000L;
+
     private final Socket socket;
-    private final String dbFilePath;
+    private final ReplicationScheduler scheduler;
 
-    public SendDataBaseCopy(Socket socket, String dbFilePath) {
+    public SendDataBaseCopy(Socket socket, ReplicationScheduler scheduler) {
         this.socket = socket;
-        this.dbFilePath = dbFilePath;
+        this.scheduler = scheduler;
     }
 
     @Override
@@ -24,34 +28,119 @@ public class SendDataBaseCopy implements Runnable {
             // Wait for request
             Object req = in.readObject();
             if (!(req instanceof Message) || !"DB_COPY_REQUEST".equals(((Message) req).getType())) {
-                System.out.println("[SendDataBaseCopy] Unexpected request, closing.");
+                Log.warn("[SendDataBaseCopy] Unexpected request, closing.");
                 return;
             }
 
+            // dbVersion[|archiveVersion]: replicas that send an archive version get the archive after the DB
+            String[] versions = ((Message) req).getContent().split("\\|", 2);
+
             // Prepare DB file bytes
-            Path p = Path.of(dbFilePath);
+            Path p = Path.of(scheduler.getDbFilePath());
             if (!Files.exists(p)) {
-                out.writeObject(new Message("DB_COPY_START", "0"));
+                out.writeObject(new Message("DB_COPY_START", "0|0"));
                 out.flush();
-                System.out.println("[SendDataBaseCopy] DB file not found: " + dbFilePath);
+                Log.warn("[SendDataBaseCopy] DB file not found: {}", p);
                 return;
             }
 
-            byte[] data = Files.readAllBytes(p);
             long version = p.toFile().lastModified();
+            if (String.valueOf(version).equals(versions[0])) {
+                out.writeObject(new Message("DB_COPY_UP_TO_DATE", String.valueOf(version)));
+                out.flush();
+                scheduler.upToDate();
+                Log.debug("[SendDataBaseCopy] Replica at {} already up to date", socket.getRemoteSocketAddress());
+            } else {
+                ReplicationScheduler.Snapshot snapshot = scheduler.acquireSnapshot();
+                try {
+                    sendSnapshot(out, snapshot);
+                } finally {
+                    scheduler.releaseSnapshot();
+                }
+            }
+            if (versions.length > 1) {
+                sendArchive(out, versions[1]);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            Log.warn("[SendDataBaseCopy] Error handling copy request: {}", e.getMessage());
+        } catch (SQLException e) {
+            Log.error("[SendDataBaseCopy] Could not snapshot the DB: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try { if (!socket.isClosed()) socket.close(); } catch (IOException ignored) {}
+        }
+    }
 
-            // inform start and send bytes
-            out.writeObject(new Message("DB_COPY_START", String.valueOf(version)));
+    // ARCHIVE_UP_TO_DATE, or ARCHIVE_COPY_START (version|size, 0|0 when there is no archive) and the
+    // file bytes, throttled like the DB copy
+    private void sendArchive(ObjectOutputStream out, String replicaVersion) throws IOException, InterruptedException {
+        long version = ArchiveJob.archiveVersion();
+        if (String.valueOf(version).equals(replicaVersion)) {
+            out.writeObject(new Message("ARCHIVE_UP_TO_DATE", String.valueOf(version)));
+            out.flush();
+            return;
+        }
+        Path copy = ArchiveJob.copyArchive();
+        if (copy == null) {
+            out.writeObject(new Message("ARCHIVE_COPY_START", "0|0"));
             out.flush();
+            return;
+        }
+        try (InputStream file = Files.newInputStream(copy)) {
+            long size = Files.size(copy);
+            ReplicationScheduler.Transfer transfer = scheduler.startTransfer(
+                    socket.getRemoteSocketAddress() + " (archive)", version, size);
+            try {
+                out.writeObject(new Message("ARCHIVE_COPY_START", Files.getLastModifiedTime(copy).toMillis() + "|" + size));
+                out.flush();
+                byte[] chunk = new byte[ReplicationScheduler.CHUNK_SIZE];
+                long remaining = size;
+                while (remaining > 0) {
+                    int len = file.readNBytes(chunk, 0, (int) Math.min(chunk.length, remaining));
+                    if (len == 0) throw new EOFException("Archive copy shorter than expected");
+                    scheduler.throttle(len);
+                    out.write(chunk, 0, len);
+                    out.flush();
+                    transfer.sentBytes.addAndGet(len);
+                    remaining -= len;
+                }
+                Log.info("[SendDataBaseCopy] Sent archive ({} bytes) to {}", size, socket.getRemoteSocketAddress());
+            } finally {
+                scheduler.finishTransfer(transfer);
+            }
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+    }
 
-            out.writeObject(data);
+    private void sendSnapshot(ObjectOutputStream out, ReplicationScheduler.Snapshot snapshot) throws IOException, InterruptedException {
+        byte[] data = snapshot.data();
+        ReplicationScheduler.Transfer transfer = scheduler.startTransfer(
+                String.valueOf(socket.getRemoteSocketAddress()), snapshot.version(), data.length);
+        try {
+            // inform start (version|size) and stream the bytes in throttled chunks
+            out.writeObject(new Message("DB_COPY_START", snapshot.version() + "|" + data.length));
             out.flush();
 
-            System.out.println("[SendDataBaseCopy] Sent DB copy (" + data.length + " bytes) to " + socket.getRemoteSocketAddress());
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("[SendDataBaseCopy] Error handling copy request: " + e.getMessage());
+            long lastLog = System.nanoTime();
+            for (int off = 0; off < data.length; off += ReplicationScheduler.CHUNK_SIZE) {
+                int len = Math.min(ReplicationScheduler.CHUNK_SIZE, data.length - off);
+                scheduler.throttle(len);
+                out.write(data, off, len);
+                out.flush();
+                transfer.sentBytes.addAndGet(len);
+
+                long now = System.nanoTime();
+                if (now - lastLog > PROGRESS_LOG_INTERVAL_NS) {
+                    Log.info("[SendDataBaseCopy] {}", transfer);
+                    lastLog = now;
+                }
+            }
+
+            Log.info("[SendDataBaseCopy] Sent DB copy ({} bytes) to {}", data.length, socket.getRemoteSocketAddress());
         } finally {
-            try { if (!socket.isClosed()) socket.close(); } catch (IOException ignored) {}
+            scheduler.finishTransfer(transfer);
         }
     }
 }
@@ -5,6 +5,8 @@ import pt.isec.pd.utils.DBSchema;
 import pt.isec.pd.utils.ConnectDB;
 import pt.isec.pd.common.Message;
 import pt.isec.pd.sockets.Udp;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -40,37 +42,43 @@ public class Server {
             try {
                 serverPort = Integer.parseInt(args[3]);
             } catch (NumberFormatException ignored) {
-                System.err.println("Warning: Invalid TCP server port. Using default: " + DEFAULT_PORT);
+                Log.warn("Invalid TCP server port. Using default: {}", DEFAULT_PORT);
                 serverPort = DEFAULT_PORT;
             }
         }
 
-        System.out.println("Server Args:");
-        System.out.println("  Directory Service IP: " + directoryServiceIP);
-        System.out.println("  UDP Directory Port: " + directoryServiceUDPPort);
-        System.out.println("  DB Path: " + dbDirectoryPath);
-        System.out.println("  TCP Server Port: " + serverPort);
-        System.out.println("------------------------------------");
+        Log.info("Server Args:");
+        Log.info("  Directory Service IP: {}", directoryServiceIP);
+        Log.info("  UDP Directory Port: {}", directoryServiceUDPPort);
+        Log.info("  DB Path: {}", dbDirectoryPath);
+        Log.info("  TCP Server Port: {}", serverPort);
+        Log.info("------------------------------------");
 
         try {
             ConnectDB.setDatabaseFile(dbDirectoryPath);
         } catch (IllegalStateException ise) {
-            System.err.println("Database already opened and cannot be changed: " + ise.getMessage());
+            Log.error("Database already opened and cannot be changed: {}", ise.getMessage());
+            Log.flush();
             return;
         }
 
         DBSchema.createTables();
+        UserCache.warm();
+        QuestionScheduler.load();
 
         ExecutorService pool = Executors.newCachedThreadPool();
+        // DB copies run on their own throttled threads, away from the client pool
+        ReplicationScheduler replicationScheduler = new ReplicationScheduler(dbDirectoryPath);
+        Metrics.start();
 
-        System.out.println("Server starting on port " + serverPort);
+        Log.info("Server starting on port {}", serverPort);
         try (ServerSocket clientSocket = new ServerSocket(serverPort);
              ServerSocket serverCopySocket = new ServerSocket(0)) {
 
             int copyPort = serverCopySocket.getLocalPort();
             int actualClientPort = clientSocket.getLocalPort(); // Use the actual bound port
-            System.out.println("Client listen port: " + actualClientPort);
-            System.out.println("Server-copy listen port (auto): " + copyPort);
+            Log.info("Client listen port: {}", actualClientPort);
+            Log.info("Server-copy listen port (auto): {}", copyPort);
 
             // Register with Directory Service
             try (Udp dsUdp = new Udp(directoryServiceIP, directoryServiceUDPPort)) {
@@ -78,46 +86,63 @@ public class Server {
                 // Send both ports: clientPort|copyPort
                 String payload = host + ":" + actualClientPort + "|" + host + ":" + copyPort;
                 dsUdp.send(new Message("SERVER_REGISTER", payload));
-                System.out.println("Sent registration to Directory Service: " + payload);
+                Log.info("Sent registration to Directory Service: {}", payload);
             } catch (IOException e) {
-                System.err.println("Could not register with Directory Service: " + e.getMessage());
+                Log.warn("Could not register with Directory Service: {}", e.getMessage());
                 // Decide if server should exit if it cannot register
             }
 
 
             // register shutdown hook after copyPort is known so it can notify DS immediately
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("Shutting down server... sending DEREGISTER to DS");
+                Log.info("Shutting down server... sending DEREGISTER to DS");
+                int unsaved = QuestionScheduler.flushAll();
+                if (unsaved > 0) Log.error("{} answer(s) were still being saved at shutdown; their students were not told they were accepted", unsaved);
                 try {
                     String host = InetAddress.getLocalHost().getHostAddress();
                     // The unique identifier for the server is its copy address
                     String serverAddr = host + ":" + copyPort;
                     try (Udp u = new Udp(directoryServiceIP, directoryServiceUDPPort)) {
                         u.send(new Message("SERVER_DEREGISTER", serverAddr));
-                        System.out.println("DEREGISTER sent: " + serverAddr);
+                        Log.info("DEREGISTER sent: {}", serverAddr);
                     }
                 } catch (Exception e) {
-                    System.err.println("Failed to send DEREGISTER: " + e.getMessage());
+                    Log.error("Failed to send DEREGISTER: {}", e.getMessage());
                 } finally {
                     pool.shutdownNow();
+                    replicationScheduler.shutdown();
+                    Log.shutdown(); // last, so everything above gets printed
                 }
             }, "server-shutdown"));
 
+            BackupConnector backupConnector = new BackupConnector(dbDirectoryPath);
+
             // start heartbeat sender
-            Thread hb = new Thread(new HeartbeatSender(directoryServiceIP, directoryServiceUDPPort, actualClientPort, copyPort, dbDirectoryPath), "heartbeat-sender");
+            Thread hb = new Thread(new HeartbeatSender(directoryServiceIP, directoryServiceUDPPort, actualClientPort, copyPort, dbDirectoryPath, backupConnector), "heartbeat-sender");
             hb.setDaemon(true);
             hb.start();
 
+            // start multicast heartbeat listener (backups catch up as soon as the principal moves ahead)
+            Thread hbListener = new Thread(new HeartbeatListener(backupConnector), "heartbeat-listener");
+            hbListener.setDaemon(true);
+            hbListener.start();
+
+            if (ArchiveJob.enabled()) {
+                Thread archiver = new Thread(new ArchiveJob(), "archive-job");
+                archiver.setDaemon(true);
+                archiver.start();
+            }
+
             // accept server-copy connections in background
             pool.submit(() -> {
                 while (!Thread.currentThread().isInterrupted()) {
                     try {
                         Socket s = serverCopySocket.accept();
-                        System.out.println("Accepted server-copy connection from " + s.getRemoteSocketAddress());
-                        pool.submit(new SendDataBaseCopy(s, dbDirectoryPath));
+                        Log.info("Accepted server-copy connection from {}", s.getRemoteSocketAddress());
+                        replicationScheduler.submit(s);
                     } catch (IOException e) {
                         if (Thread.currentThread().isInterrupted()) break;
-                        System.err.println("Error accepting server-copy connection: " + e.getMessage());
+                        Log.error("Error accepting server-copy connection: {}", e.getMessage());
                         break;
                     }
                 }
@@ -126,12 +151,13 @@ public class Server {
             // accept clients (existing behavior)
             while (true) {
                 Socket client = clientSocket.accept();
-                System.out.println("Accepted connection from " + client.getRemoteSocketAddress());
+                Log.debug("Accepted connection from {}", client.getRemoteSocketAddress());
                 ClientHandler handler = new ClientHandler(client);
                 pool.submit(handler); // ClientHandler is a Thread, can be submitted directly
             }
         } catch (IOException e) {
-            System.err.println("Server I/O error: " + e.getMessage());
+            Log.error("Server I/O error: {}", e.getMessage());
+            Log.flush();
         }
     }
 }
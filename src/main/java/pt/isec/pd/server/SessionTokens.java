@@ -0,0 +1,131 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+// Signed, expiring session tokens so a client can resume its session on another server after a
+// failover with one HMAC check instead of a full PBKDF2 verify.
+// Token: base64url(role|expiresAtMs|generation|email|name) "." base64url(HMAC-SHA256(payload)).
+// The key lives in the SessionKey table, so it reaches the backups with the regular DB copies.
+// Tokens expire after pd.session.ttlMinutes. Each account has a session generation (read through
+// UserCache) that logout and password changes bump, so the tokens issued before stop verifying.
+public final class SessionTokens {
+    private static final long TTL_MS = Long.getLong("pd.session.ttlMinutes", 60) * 60_000L;
+    private static final String HMAC = "HmacSHA256";
+    private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder B64_DECODE = Base64.getUrlDecoder();
+
+    private static final Metrics.Counter ISSUED = Metrics.counter("session.issued");
+    private static final Metrics.Counter RESUMED = Metrics.counter("session.resumed");
+    private static final Metrics.Counter REJECTED = Metrics.counter("session.rejected");
+
+    private static volatile SecretKeySpec key;
+    private static final ThreadLocal<Mac> MAC = new ThreadLocal<>();
+
+    private SessionTokens() { }
+
+    public record Session(String role, String email, String name) { }
+
+    // Returns a new token, or null when no key is available (e.g. a backup that never received one)
+    public static String issue(String role, String email, String name, long generation) {
+        byte[] payload = (role + "|" + (System.currentTimeMillis() + TTL_MS) + "|" + generation + "|" + email + "|" + name)
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] signature = sign(payload, ReplicaState.isPrincipal());
+        if (signature == null) return null;
+        ISSUED.inc();
+        return B64.encodeToString(payload) + "." + B64.encodeToString(signature);
+    }
+
+    // Returns the session the token was issued for, or null if it is malformed, forged, expired or revoked
+    public static Session verify(String token) {
+        Session session = parse(token);
+        if (session == null) REJECTED.inc(); else RESUMED.inc();
+        return session;
+    }
+
+    private static Session parse(String token) {
+        if (token == null) return null;
+        int dot = token.indexOf('.');
+        if (dot <= 0) return null;
+        try {
+            byte[] payload = B64_DECODE.decode(token.substring(0, dot));
+            byte[] signature = B64_DECODE.decode(token.substring(dot + 1));
+            byte[] expected = sign(payload, false);
+            if (expected == null || !MessageDigest.isEqual(expected, signature)) return null;
+
+            String[] parts = new String(payload, StandardCharsets.UTF_8).split("\\|", 5);
+            if (parts.length != 5 || Long.parseLong(parts[1]) < System.currentTimeMillis()) return null;
+            if (Long.parseLong(parts[2]) != UsersRepository.sessionGeneration(parts[0], parts[3])) return null;
+            return new Session(parts[0], parts[3], parts[4]);
+        } catch (IllegalArgumentException e) {
+            return null; // bad base64, expiry or generation
+        }
+    }
+
+    // Forgets the cached key so the next token reloads it (the DB file was replaced by a copy)
+    public static synchronized void reset() {
+        key = null;
+    }
+
+    private static byte[] sign(byte[] payload, boolean createKey) {
+        SecretKeySpec k = loadKey(createKey);
+        if (k == null) return null;
+        try {
+            Mac mac = MAC.get();
+            if (mac == null) {
+                mac = Mac.getInstance(HMAC);
+                MAC.set(mac);
+            }
+            mac.init(k);
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC not available: " + e.getMessage(), e);
+        }
+    }
+
+    // Only the principal creates the key; backups wait until a DB copy brings it
+    private static SecretKeySpec loadKey(boolean create) {
+        SecretKeySpec k = key;
+        if (k != null) return k;
+        synchronized (SessionTokens.class) {
+            if (key != null) return key;
+            try (Connection c = ConnectDB.getConnection()) {
+                String hex = readKey(c);
+                if (hex == null && create) {
+                    byte[] fresh = new byte[32];
+                    new SecureRandom().nextBytes(fresh);
+                    try (PreparedStatement ps = c.prepareStatement("INSERT OR IGNORE INTO SessionKey (id, key_hex) VALUES (1, ?)")) {
+                        ps.setString(1, HexFormat.of().formatHex(fresh));
+                        ps.executeUpdate();
+                    }
+                    hex = readKey(c);
+                }
+                if (hex != null) key = new SecretKeySpec(HexFormat.of().parseHex(hex), HMAC);
+            } catch (SQLException e) {
+                Log.error("[SessionTokens] Could not load session key: {}", e.getMessage());
+            }
+            return key;
+        }
+    }
+
+    private static String readKey(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT key_hex FROM SessionKey WHERE id = 1");
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+}
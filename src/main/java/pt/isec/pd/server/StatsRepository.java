@@ -0,0 +1,121 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.DBSchema;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+import pt.isec.pd.utils.RequestTrace;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads the precomputed dashboard tables (QuestionStats, TeacherStats, TeacherParticipant).
+// They are maintained by triggers (see DBSchema), so reads never touch Answer; rebuild()
+// recomputes everything from scratch for when they were created on an existing DB or drifted.
+public class StatsRepository {
+    private static final Metrics.Histogram TEACHER_STATS = Metrics.timer("repo.teacherStats");
+    private static final Metrics.Histogram REBUILD = Metrics.timer("repo.rebuildStats");
+
+    public record TeacherSummary(long questions, long answers, long correct, long participants) { }
+
+    public record QuestionSummary(long id, String code, long answers, long correct) { }
+
+    // Totals for a teacher, or null if the teacher doesn't exist
+    public static TeacherSummary teacherSummary(String teacherEmail) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection c = ConnectDB.getConnection()) {
+            long teacherId = QuestionsRepository.teacherId(c, teacherEmail);
+            if (teacherId < 0) return null;
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT questions, answers, correct, participants FROM TeacherStats WHERE teacher_id = ?")) {
+                ps.setLong(1, teacherId);
+                long queryStart = RequestTrace.start();
+                try (ResultSet rs = ps.executeQuery()) {
+                    RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+                    return rs.next()
+                            ? new TeacherSummary(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4))
+                            : new TeacherSummary(0, 0, 0, 0);
+                }
+            }
+        } finally {
+            TEACHER_STATS.recordSince(start);
+        }
+    }
+
+    // The teacher's latest questions, newest first
+    public static List<QuestionSummary> recentQuestions(String teacherEmail, int limit) throws SQLException {
+        List<QuestionSummary> result = new ArrayList<>();
+        try (Connection c = ConnectDB.getConnection()) {
+            long teacherId = QuestionsRepository.teacherId(c, teacherEmail);
+            if (teacherId < 0) return result;
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT s.question_id, q.access_code, s.answers, s.correct FROM QuestionStats s"
+                            + " JOIN Question q ON q.id_question = s.question_id"
+                            + " WHERE s.teacher_id = ? ORDER BY s.question_id DESC LIMIT ?")) {
+                ps.setLong(1, teacherId);
+                ps.setInt(2, limit);
+                long queryStart = RequestTrace.start();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(new QuestionSummary(rs.getLong(1), rs.getString(2), rs.getLong(3), rs.getLong(4)));
+                    }
+                }
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+            }
+        }
+        return result;
+    }
+
+    // Recomputes all stats tables in one transaction.
+    // Participants go in first: their trigger creates the TeacherStats rows the last statement then fills in.
+    public static void rebuild() throws SQLException {
+        long start = System.nanoTime();
+        try (Connection c = ConnectDB.getConnection();
+             Statement st = c.createStatement()) {
+            c.setAutoCommit(false);
+            try {
+                st.executeUpdate("DELETE FROM TeacherParticipant");
+                st.executeUpdate("DELETE FROM QuestionStats");
+                st.executeUpdate("DELETE FROM TeacherStats");
+                st.executeUpdate("INSERT INTO TeacherParticipant (teacher_id, student_id)"
+                        + " SELECT DISTINCT q.teacher_id, a.student_id FROM Answer a JOIN Question q ON q.id_question = a.question_id");
+                st.executeUpdate("INSERT INTO QuestionStats (question_id, teacher_id, answers, correct)"
+                        + " SELECT q.id_question, q.teacher_id, COUNT(a.id_answer), COALESCE(SUM(o.is_correct), 0)"
+                        + " FROM Question q LEFT JOIN Answer a ON a.question_id = q.id_question"
+                        + " LEFT JOIN Option o ON o.question_id = a.question_id AND o.identifier = a.selected_option"
+                        + " GROUP BY q.id_question");
+                st.executeUpdate("INSERT INTO TeacherStats (teacher_id, questions, answers, correct)"
+                        + " SELECT teacher_id, COUNT(*), SUM(answers), SUM(correct) FROM QuestionStats WHERE true GROUP BY teacher_id"
+                        + " ON CONFLICT (teacher_id) DO UPDATE SET questions = excluded.questions,"
+                        + " answers = excluded.answers, correct = excluded.correct");
+                st.executeUpdate(DBSchema.BUMP_VERSION);
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        } finally {
+            REBUILD.recordSince(start);
+        }
+        Log.info("[Stats] Rebuilt in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Rebuilds when the stats don't cover every question (first start after the tables were added).
+    // Returns whether it did; callers go one at a time, so the next one finds them complete.
+    public static synchronized boolean rebuildIfIncomplete() throws SQLException {
+        boolean incomplete;
+        try (Connection c = ConnectDB.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery(
+                     "SELECT (SELECT COUNT(*) FROM Question) <> (SELECT COUNT(*) FROM QuestionStats)")) {
+            incomplete = rs.next() && rs.getBoolean(1);
+        }
+        if (incomplete) rebuild();
+        return incomplete;
+    }
+}
@@ -0,0 +1,188 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.HashExecutor;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+import pt.isec.pd.utils.SecurityUtils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Bulk student imports, run as jobs so a large file (about 50 ms of PBKDF2 per row) doesn't hold a
+// DB-stage thread and an admission permit for minutes. The request handler only parses the CSV and
+// checks duplicates; then each batch of BATCH rows is hashed on HashExecutor, one row per task with
+// at most one task per pool thread in flight (so logins still find room in its queue), and inserted
+// in one transaction by a task on the DB stage, which starts the next batch. No thread waits for
+// another. At most pd.import.maxJobs (2) imports run at once; more are refused.
+public final class StudentImport {
+    private static final Semaphore JOBS = new Semaphore(Integer.getInteger("pd.import.maxJobs", 2));
+    // rows hashed and inserted per transaction
+    private static final int BATCH = 500;
+
+    private static final Metrics.Histogram IMPORT = Metrics.timer("import.students");
+    private static final Metrics.Counter REFUSED = Metrics.counter("import.refused");
+
+    private StudentImport() { }
+
+    // Starts importing the students; onDone gets one result per student, in order (see
+    // UsersRepository.checkNewStudents, plus "OK", "SERVER_BUSY" and "SQL_ERROR: ..."), on an arbitrary
+    // thread. Returns false, without starting anything, when too many imports are already running.
+    public static boolean submit(List<UsersRepository.NewStudent> students, Consumer<List<String>> onDone) throws SQLException {
+        if (!JOBS.tryAcquire()) {
+            REFUSED.inc();
+            return false;
+        }
+        String[] results;
+        try {
+            results = UsersRepository.checkNewStudents(students);
+        } catch (SQLException | RuntimeException e) {
+            JOBS.release();
+            throw e;
+        }
+        new Job(students, results, onDone).nextBatch(0);
+        return true;
+    }
+
+    private static final class Job {
+        final List<UsersRepository.NewStudent> students;
+        final String[] results;
+        final List<Integer> pending = new ArrayList<>();
+        final Consumer<List<String>> onDone;
+        final long start = System.nanoTime();
+        // the hashing pool refused work: the rows not hashed yet are answered SERVER_BUSY
+        volatile boolean busy;
+
+        Job(List<UsersRepository.NewStudent> students, String[] results, Consumer<List<String>> onDone) {
+            this.students = students;
+            this.results = results;
+            this.onDone = onDone;
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) pending.add(i);
+            }
+        }
+
+        void nextBatch(int from) {
+            if (from >= pending.size()) {
+                finish();
+                return;
+            }
+            if (busy) {
+                for (int i : pending.subList(from, pending.size())) results[i] = "SERVER_BUSY";
+                finish();
+                return;
+            }
+            Batch batch = new Batch(this, from, pending.subList(from, Math.min(pending.size(), from + BATCH)));
+            for (int w = 0; w < Math.min(HashExecutor.threads(), batch.rows.size()); w++) {
+                batch.hashNext();
+            }
+        }
+
+        // runs on the DB stage (or on the last hashing thread when that stage is saturated)
+        void insert(Batch batch) {
+            List<Integer> rows = new ArrayList<>(batch.rows.size());
+            List<String> hashes = new ArrayList<>(batch.rows.size());
+            for (int k = 0; k < batch.rows.size(); k++) {
+                int i = batch.rows.get(k);
+                if (batch.hashes[k] == null) {
+                    results[i] = "SERVER_BUSY";
+                } else {
+                    rows.add(i);
+                    hashes.add(batch.hashes[k]);
+                }
+            }
+            try {
+                if (!rows.isEmpty()) UsersRepository.insertStudents(students, rows, hashes, results);
+            } catch (SQLException e) {
+                Log.error("SQL Error importing students: {}", e.getMessage());
+                for (int i : rows) results[i] = "SQL_ERROR: " + e.getMessage();
+            }
+            nextBatch(batch.from + batch.rows.size());
+        }
+
+        void finish() {
+            JOBS.release();
+            IMPORT.recordSince(start);
+            onDone.accept(List.of(results));
+        }
+    }
+
+    // One batch of rows being hashed; each pool task hashes a row and then claims the next one.
+    // When the pool's queue is full the row waits in `retry` for one of our tasks still in flight,
+    // so only with none left is the rest of the import answered SERVER_BUSY.
+    private static final class Batch {
+        final Job job;
+        final int from;
+        final List<Integer> rows;
+        final String[] hashes;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final ConcurrentLinkedQueue<Integer> retry = new ConcurrentLinkedQueue<>();
+
+        Batch(Job job, int from, List<Integer> rows) {
+            this.job = job;
+            this.from = from;
+            this.rows = rows;
+            this.hashes = new String[rows.size()];
+        }
+
+        void hashNext() {
+            Integer k;
+            while ((k = claim()) != null) {
+                if (!job.busy) {
+                    int row = k;
+                    inFlight.incrementAndGet();
+                    try {
+                        HashExecutor.submit(() -> {
+                            hash(row);
+                            return null;
+                        });
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        inFlight.decrementAndGet();
+                        retry.add(row);
+                        if (inFlight.get() > 0) return; // a task of ours will pick it up
+                        k = retry.poll();
+                        if (k == null) return; // one just did
+                        job.busy = true;
+                    }
+                }
+                rowDone(); // left unhashed, answered SERVER_BUSY
+            }
+        }
+
+        private Integer claim() {
+            Integer k = retry.poll();
+            if (k != null) return k;
+            int n = next.getAndIncrement();
+            return n < rows.size() ? n : null;
+        }
+
+        private void hash(int k) {
+            try {
+                // on a pool thread, so this hashes inline
+                hashes[k] = SecurityUtils.createHash(job.students.get(rows.get(k)).password());
+            } catch (RuntimeException e) {
+                Log.error("[Import] Could not hash a password: {}", e.getMessage());
+            }
+            inFlight.decrementAndGet();
+            hashNext();
+            rowDone();
+        }
+
+        private void rowDone() {
+            if (done.incrementAndGet() != rows.size()) return;
+            try {
+                RequestPipeline.execute(RequestPipeline.Stage.DB, () -> job.insert(this));
+            } catch (RejectedExecutionException e) {
+                job.insert(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU of the accounts used for authentication, keyed by role and email, so a burst of
+// logins only reads SQLite for accounts it hasn't seen. Entries are dropped when the account
+// changes (registration, profile update, logout) and the whole cache is cleared when a DB copy replaces
+// the local database. A generation counter keeps a lookup that raced with an invalidation from
+// putting the old row back.
+public final class UserCache {
+    private static final int CAPACITY = Integer.getInteger("pd.userCache.size", 10_000);
+
+    private static final Map<String, CachedUser> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private static long generation;
+
+    private static final Metrics.Counter HITS = Metrics.counter("userCache.hits");
+    private static final Metrics.Counter MISSES = Metrics.counter("userCache.misses");
+
+    static {
+        Metrics.gauge("userCache.size", UserCache::size);
+    }
+
+    private UserCache() { }
+
+    // sessionGeneration: see SessionTokens
+    public record CachedUser(long id, String name, String passwordHash, String role, long sessionGeneration) { }
+
+    // Returns the cached account, or null on a miss (read generation() before querying the DB)
+    public static synchronized CachedUser get(String role, String email) {
+        CachedUser user = entries.get(key(role, email));
+        if (user != null) HITS.inc(); else MISSES.inc();
+        return user;
+    }
+
+    public static synchronized long generation() {
+        return generation;
+    }
+
+    // Stores a row read from the DB, unless the cache was invalidated since `readGeneration`
+    public static synchronized void put(CachedUser user, String email, long readGeneration) {
+        if (readGeneration == generation) {
+            entries.put(key(user.role(), email), user);
+        }
+    }
+
+    public static synchronized void invalidate(String role, String email) {
+        if (email == null) return;
+        generation++;
+        entries.remove(key(role, email));
+    }
+
+    public static synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public static synchronized int size() {
+        return entries.size();
+    }
+
+    // Loads up to CAPACITY accounts so the first logins after startup are already hits
+    public static void warm() {
+        long gen = generation();
+        int loaded = 0;
+        try (Connection c = ConnectDB.getConnection()) {
+            loaded += load(c, "SELECT id_teacher, name, email, password_hash, session_generation FROM Docentes LIMIT ?", "DOCENTE", gen, CAPACITY);
+            loaded += load(c, "SELECT id_student, name, email, password_hash, session_generation FROM Student LIMIT ?", "STUDENT", gen, CAPACITY - loaded);
+        } catch (SQLException e) {
+            Log.warn("[UserCache] Warm-up failed: {}", e.getMessage());
+            return;
+        }
+        Log.info("[UserCache] Warmed with {} account(s)", loaded);
+    }
+
+    private static int load(Connection c, String sql, String role, long gen, int limit) throws SQLException {
+        if (limit <= 0) return 0;
+        int n = 0;
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setInt(1, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    put(new CachedUser(rs.getLong(1), rs.getString(2), rs.getString(4), role, rs.getLong(5)), rs.getString(3), gen);
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private static String key(String role, String email) {
+        return ("DOCENTE".equals(role) ? "DOCENTE" : "STUDENT") + ":" + email.toLowerCase();
+    }
+}
@@ -1,6 +1,9 @@
 package pt.isec.pd.server;
 
 import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.Metrics;
+import pt.isec.pd.utils.RequestTrace;
 import pt.isec.pd.utils.SecurityUtils;
 
 import java.sql.Connection;
@@ -8,8 +11,23 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class UsersRepository {
+    private static final Metrics.Histogram REGISTER_TEACHER = Metrics.timer("repo.registerTeacher");
+    private static final Metrics.Histogram REGISTER_STUDENT = Metrics.timer("repo.registerStudent");
+    private static final Metrics.Histogram AUTHENTICATE = Metrics.timer("repo.authenticate");
+    private static final Metrics.Histogram UPDATE_TEACHER = Metrics.timer("repo.updateTeacher");
+    private static final Metrics.Histogram INSERT_STUDENTS = Metrics.timer("repo.insertStudents");
+
+    // rows per duplicate lookup (two parameters each, well under SQLite's 32766 limit)
+    private static final int IMPORT_LOOKUP_ROWS = 5000;
+
+    public record NewStudent(String studentNumber, String name, String email, String password) { }
 
     private static String getTeacherRegistrationCodeFromDB() throws SQLException {
         try (Connection c = ConnectDB.getConnection()) {
@@ -33,6 +51,15 @@ public class UsersRepository {
     }
 
     public static String registerTeacher(String email, String password, String name, String registrationCode) {
+        long start = System.nanoTime();
+        try {
+            return doRegisterTeacher(email, password, name, registrationCode);
+        } finally {
+            REGISTER_TEACHER.recordSince(start);
+        }
+    }
+
+    private static String doRegisterTeacher(String email, String password, String name, String registrationCode) {
         if (email == null || email.isBlank() || password == null || password.isBlank() || name == null || name.isBlank()) {
             return "INVALID_INPUT";
         }
@@ -43,7 +70,7 @@ public class UsersRepository {
                 return "INVALID_REGISTRATION_CODE";
             }
         } catch (SQLException | IllegalStateException e) {
-            System.err.println("Error retrieving teacher registration code: " + e.getMessage());
+            Log.error("Error retrieving teacher registration code: {}", e.getMessage());
             return "SQL_ERROR: " + e.getMessage();
         }
 
@@ -54,7 +81,10 @@ public class UsersRepository {
             // Check if email already exists
             try (PreparedStatement ps = c.prepareStatement("SELECT id_teacher FROM Docentes WHERE email = ?")) {
                 ps.setString(1, email.toLowerCase());
-                if (ps.executeQuery().next()) {
+                long queryStart = RequestTrace.start();
+                boolean exists = ps.executeQuery().next();
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+                if (exists) {
                     return "EMAIL_ALREADY_EXISTS";
                 }
             }
@@ -66,16 +96,28 @@ public class UsersRepository {
                 ps.setString(2, email.toLowerCase());
                 ps.setString(3, passwordHash);
                 ps.setString(4, registrationCode); // Storing the code used for registration
+                long queryStart = RequestTrace.start();
                 int affectedRows = ps.executeUpdate();
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+                UserCache.invalidate("DOCENTE", email);
                 return affectedRows > 0 ? "OK" : "ERROR_INSERT";
             }
         } catch (SQLException e) {
-            System.err.println("SQL Error during teacher registration: " + e.getMessage());
+            Log.error("SQL Error during teacher registration: {}", e.getMessage());
             return "SQL_ERROR: " + e.getMessage();
         }
     }
 
     public static String registerStudent(String email, String password, String name, String studentNumber) {
+        long start = System.nanoTime();
+        try {
+            return doRegisterStudent(email, password, name, studentNumber);
+        } finally {
+            REGISTER_STUDENT.recordSince(start);
+        }
+    }
+
+    private static String doRegisterStudent(String email, String password, String name, String studentNumber) {
         if (email == null || email.isBlank() || password == null || password.isBlank() || name == null || name.isBlank() || studentNumber == null || studentNumber.isBlank()) {
             return "INVALID_INPUT";
         }
@@ -87,8 +129,11 @@ public class UsersRepository {
             try (PreparedStatement ps = c.prepareStatement("SELECT id_student FROM Student WHERE email = ? OR student_number = ?")) {
                 ps.setString(1, email.toLowerCase());
                 ps.setString(2, studentNumber);
+                long queryStart = RequestTrace.start();
                 try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
+                    boolean exists = rs.next();
+                    RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+                    if (exists) {
                         // This part could be more specific if we query separately
                         return "EMAIL_ALREADY_EXISTS"; // Or STUDENT_NUMBER_ALREADY_EXISTS
                     }
@@ -102,41 +147,77 @@ public class UsersRepository {
                 ps.setString(2, name);
                 ps.setString(3, email.toLowerCase());
                 ps.setString(4, passwordHash);
+                long queryStart = RequestTrace.start();
                 int affectedRows = ps.executeUpdate();
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+                UserCache.invalidate("STUDENT", email);
                 return affectedRows > 0 ? "OK" : "ERROR_INSERT";
             }
         } catch (SQLException e) {
-            System.err.println("SQL Error during student registration: " + e.getMessage());
+            Log.error("SQL Error during student registration: {}", e.getMessage());
             return "SQL_ERROR: " + e.getMessage();
         }
     }
 
     public static String authenticate(String role, String email, String password) {
+        long start = System.nanoTime();
+        try {
+            return doAuthenticate(role, email, password);
+        } finally {
+            AUTHENTICATE.recordSince(start);
+        }
+    }
+
+    private static String doAuthenticate(String role, String email, String password) {
         if (email == null || email.isBlank() || password == null || password.isBlank()) {
             return null;
         }
 
-        String tableName = "DOCENTE".equals(role) ? "Docentes" : "Student";
-        String sql = "SELECT name, password_hash FROM " + tableName + " WHERE email = ?";
+        UserCache.CachedUser user = UserCache.get(role, email);
+        if (user == null) {
+            user = loadUser(role, email);
+            if (user == null) return null;
+        }
+        return SecurityUtils.verify(password, user.passwordHash()) ? user.name() : null;
+    }
+
+    private static UserCache.CachedUser loadUser(String role, String email) {
+        boolean teacher = "DOCENTE".equals(role);
+        String sql = teacher
+                ? "SELECT id_teacher, name, password_hash, session_generation FROM Docentes WHERE email = ?"
+                : "SELECT id_student, name, password_hash, session_generation FROM Student WHERE email = ?";
 
+        long generation = UserCache.generation();
         try (Connection c = ConnectDB.getConnection();
              PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setString(1, email.toLowerCase());
+            long queryStart = RequestTrace.start();
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    String storedHash = rs.getString("password_hash");
-                    if (SecurityUtils.verify(password, storedHash)) {
-                        return rs.getString("name");
-                    }
+                boolean found = rs.next();
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+                if (found) {
+                    UserCache.CachedUser user = new UserCache.CachedUser(rs.getLong(1), rs.getString("name"),
+                            rs.getString("password_hash"), teacher ? "DOCENTE" : "STUDENT", rs.getLong("session_generation"));
+                    UserCache.put(user, email, generation);
+                    return user;
                 }
             }
         } catch (SQLException e) {
-            System.err.println("SQL Error during authentication: " + e.getMessage());
+            Log.error("SQL Error during authentication: {}", e.getMessage());
         }
         return null;
     }
 
     public static String updateTeacher(String currentEmail, String newName, String newEmail, String newPassword) {
+        long start = System.nanoTime();
+        try {
+            return doUpdateTeacher(currentEmail, newName, newEmail, newPassword);
+        } finally {
+            UPDATE_TEACHER.recordSince(start);
+        }
+    }
+
+    private static String doUpdateTeacher(String currentEmail, String newName, String newEmail, String newPassword) {
         if (currentEmail == null || currentEmail.isBlank()) {
             return "Current email is required.";
         }
@@ -155,7 +236,7 @@ public class UsersRepository {
         }
         if (newPassword != null && !newPassword.isBlank()) {
             if (!first) sql.append(", ");
-            sql.append("password_hash = ?");
+            sql.append("password_hash = ?, session_generation = session_generation + 1"); // revokes session tokens
             first = false;
         }
 
@@ -179,14 +260,182 @@ public class UsersRepository {
             }
             ps.setString(paramIndex, currentEmail.toLowerCase());
 
+            long queryStart = RequestTrace.start();
             int affectedRows = ps.executeUpdate();
+            RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+            UserCache.invalidate("DOCENTE", currentEmail);
+            UserCache.invalidate("DOCENTE", newEmail);
+            if (newEmail != null && !newEmail.isBlank()) ResultCache.clear(); // cached results carry the owner's email
             return affectedRows > 0 ? "OK" : "USER_NOT_FOUND";
         } catch (SQLException e) {
-            System.err.println("SQL Error during teacher update: " + e.getMessage());
+            Log.error("SQL Error during teacher update: {}", e.getMessage());
             if (e.getMessage().contains("UNIQUE constraint failed")) {
                 return "EMAIL_ALREADY_EXISTS";
             }
             return "SQL_ERROR: " + e.getMessage();
         }
     }
+
+    // Session generation of the account, from the cache when possible; -1 if there is no such account
+    public static long sessionGeneration(String role, String email) {
+        if (email == null) return -1;
+        UserCache.CachedUser user = UserCache.get(role, email);
+        if (user == null) user = loadUser(role, email);
+        return user == null ? -1 : user.sessionGeneration();
+    }
+
+    // Revokes every session token issued to the account so far
+    public static void revokeSessions(String role, String email) throws SQLException {
+        String table = "DOCENTE".equals(role) ? "Docentes" : "Student";
+        try (Connection c = ConnectDB.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     "UPDATE " + table + " SET session_generation = session_generation + 1 WHERE email = ?")) {
+            ps.setString(1, email.toLowerCase());
+            ps.executeUpdate();
+        } finally {
+            UserCache.invalidate(role, email);
+        }
+    }
+
+    // Student id for an authenticated email, from the cache when possible; -1 if unknown
+    public static long findStudentId(String email) {
+        UserCache.CachedUser user = UserCache.get("STUDENT", email);
+        if (user == null) user = loadUser("STUDENT", email);
+        return user == null ? -1 : user.id();
+    }
+
+    // student_number,name,email,password  fields may be "quoted" to contain commas
+    public static NewStudent parseStudentCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (quoted) {
+                if (ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (ch == '"') {
+                    quoted = false;
+                } else {
+                    field.append(ch);
+                }
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(ch);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("Unterminated quote");
+        fields.add(field.toString().trim());
+        if (fields.size() != 4) {
+            throw new IllegalArgumentException("Expected student_number,name,email,password");
+        }
+        for (String f : fields) {
+            if (f.isEmpty()) throw new IllegalArgumentException("Empty field");
+        }
+        if (fields.get(2).indexOf('@') < 1) throw new IllegalArgumentException("Invalid email");
+        return new NewStudent(fields.get(0), fields.get(1), fields.get(2).toLowerCase(), fields.get(3));
+    }
+
+    // First phase of a bulk import (see StudentImport): flags duplicates inside the list and rows
+    // already registered, before anything is hashed. Returns one result per student, null for the
+    // rows that still have to be inserted, otherwise "DUPLICATE_IN_IMPORT", "EMAIL_ALREADY_EXISTS"
+    // or "STUDENT_NUMBER_ALREADY_EXISTS".
+    public static String[] checkNewStudents(List<NewStudent> students) throws SQLException {
+        String[] results = new String[students.size()];
+        Set<String> emails = new HashSet<>();
+        Set<String> numbers = new HashSet<>();
+        List<Integer> rows = new ArrayList<>(students.size());
+        for (int i = 0; i < students.size(); i++) {
+            NewStudent s = students.get(i);
+            if (!emails.add(s.email()) | !numbers.add(s.studentNumber())) { // '|': record both keys
+                results[i] = "DUPLICATE_IN_IMPORT";
+            } else {
+                rows.add(i);
+            }
+        }
+        try (Connection c = ConnectDB.getConnection()) {
+            markExisting(c, students, rows, results);
+        }
+        return results;
+    }
+
+    // Inserts students[rows[k]] with hashes[k] in one transaction and sets their results to "OK",
+    // or to the key that was registered by someone else since checkNewStudents
+    public static void insertStudents(List<NewStudent> students, List<Integer> rows, List<String> hashes,
+                                      String[] results) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection c = ConnectDB.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     "INSERT OR IGNORE INTO Student (student_number, name, email, password_hash) VALUES (?, ?, ?, ?)")) {
+            for (int k = 0; k < rows.size(); k++) {
+                NewStudent s = students.get(rows.get(k));
+                ps.setString(1, s.studentNumber());
+                ps.setString(2, s.name());
+                ps.setString(3, s.email());
+                ps.setString(4, hashes.get(k));
+                ps.addBatch();
+            }
+            int[] counts;
+            c.setAutoCommit(false);
+            long queryStart = RequestTrace.start();
+            try {
+                counts = ps.executeBatch();
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+            }
+            List<Integer> ignored = new ArrayList<>();
+            for (int k = 0; k < rows.size(); k++) {
+                if (counts[k] == 0) ignored.add(rows.get(k)); else results[rows.get(k)] = "OK";
+            }
+            markExisting(c, students, ignored, results);
+            for (int i : ignored) {
+                if (results[i] == null) results[i] = "SQL_ERROR: row was not inserted";
+            }
+        } finally {
+            INSERT_STUDENTS.recordSince(start);
+        }
+        for (int i : rows) {
+            if ("OK".equals(results[i])) UserCache.invalidate("STUDENT", students.get(i).email());
+        }
+    }
+
+    // Sets the result of students[rows[k]] whose email or student number is already registered,
+    // a few thousand rows per query
+    private static void markExisting(Connection c, List<NewStudent> students, List<Integer> rows,
+                                     String[] results) throws SQLException {
+        Set<String> existingEmails = new HashSet<>();
+        Set<String> existingNumbers = new HashSet<>();
+        for (int from = 0; from < rows.size(); from += IMPORT_LOOKUP_ROWS) {
+            List<Integer> chunk = rows.subList(from, Math.min(rows.size(), from + IMPORT_LOOKUP_ROWS));
+            String params = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            try (PreparedStatement ps = c.prepareStatement("SELECT email, student_number FROM Student WHERE email IN ("
+                    + params + ") OR student_number IN (" + params + ")")) {
+                int p = 1;
+                for (int i : chunk) ps.setString(p++, students.get(i).email());
+                for (int i : chunk) ps.setString(p++, students.get(i).studentNumber());
+                long queryStart = RequestTrace.start();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        existingEmails.add(rs.getString(1));
+                        existingNumbers.add(rs.getString(2));
+                    }
+                }
+                RequestTrace.record(RequestTrace.Stage.SQL, queryStart);
+            }
+        }
+        for (int i : rows) {
+            if (existingEmails.contains(students.get(i).email())) results[i] = "EMAIL_ALREADY_EXISTS";
+            else if (existingNumbers.contains(students.get(i).studentNumber())) results[i] = "STUDENT_NUMBER_ALREADY_EXISTS";
+        }
+    }
 }
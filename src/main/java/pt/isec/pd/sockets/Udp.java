@@ -6,6 +6,7 @@ import java.net.*;
 public class Udp implements Closeable {
     private static final int SIZE = 4096;
 
+    private final byte[] receiveBuffer = new byte[SIZE];
     private DatagramPacket packet;
     private DatagramSocket socket;
     private ByteArrayOutputStream bOut;
@@ -41,8 +42,22 @@ public class Udp implements Closeable {
         socket.send(packet);
     }
 
+    // Serializes an object once so the same datagram payload can be sent many times
+    public static byte[] encode(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(obj);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Sends an already encoded payload through this socket to any destination
+    public void sendBytes(byte[] data, InetAddress address, int port) throws IOException {
+        socket.send(new DatagramPacket(data, data.length, address, port));
+    }
+
     public Object receive() throws IOException, ClassNotFoundException {
-        packet = new DatagramPacket(new byte[SIZE], SIZE);
+        packet = new DatagramPacket(receiveBuffer, SIZE);
 
         socket.receive(packet);
 
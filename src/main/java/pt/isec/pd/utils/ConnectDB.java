@@ -7,6 +7,7 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Properties;
 
 public final class ConnectDB {
     private static volatile String url = initDefaultUrl();
@@ -27,19 +28,25 @@ public final class ConnectDB {
         if (file == null || file.isBlank()) return;
         if (opened) throw new IllegalStateException("Cannot change database file after a connection was opened");
         url = "jdbc:sqlite:" + file;
-        System.out.println("Database configuration set to: " + file);
+        Log.info("Database configuration set to: {}", file);
+    }
+
+    // Path of the database file in use
+    public static String getDatabaseFile() {
+        return url.replaceFirst("^jdbc:sqlite:", "");
     }
 
     public static Connection getConnection() throws SQLException {
+        long t0 = RequestTrace.start();
         // Ensure parent directories exist for DBs
         try {
-            String pathPart = url.replaceFirst("^jdbc:sqlite:", "");
+            String pathPart = getDatabaseFile();
             if (!":memory:".equals(pathPart)) {
                 Path dbPath = Path.of(pathPart).toAbsolutePath();
                 Path parent = dbPath.getParent();
                 if (parent != null && !Files.exists(parent)) {
                     Files.createDirectories(parent);
-                    System.out.println("Data directories created at: " + parent);
+                    Log.info("Data directories created at: {}", parent);
                 }
             }
         } catch (IOException ex) {
@@ -55,7 +62,29 @@ public final class ConnectDB {
         }
 
         opened = true;
-        System.out.println("Opened DB connection. URL: " + url);
+        RequestTrace.record(RequestTrace.Stage.DB_CONNECT, t0);
+        Log.debug("Opened DB connection. URL: {}", url);
+        return conn;
+    }
+
+    // Connection that SQLite itself opens read-only (SQLITE_OPEN_READONLY), for long reads such as reports
+    public static Connection getReadOnlyConnection() throws SQLException {
+        Connection conn = openReadOnly(url);
+        opened = true;
+        return conn;
+    }
+
+    // Same, on another SQLite file (the archive); fails if the file doesn't exist
+    public static Connection getReadOnlyConnection(String file) throws SQLException {
+        return openReadOnly("jdbc:sqlite:" + file);
+    }
+
+    private static Connection openReadOnly(String fileUrl) throws SQLException {
+        long t0 = RequestTrace.start();
+        Properties props = new Properties();
+        props.setProperty("open_mode", "1");
+        Connection conn = DriverManager.getConnection(fileUrl, props);
+        RequestTrace.record(RequestTrace.Stage.DB_CONNECT, t0);
         return conn;
     }
 }
@@ -1,10 +1,16 @@
 package pt.isec.pd.utils;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DBSchema {
+    // marks a change for replication; run inside the transaction that makes it
+    public static final String BUMP_VERSION = "UPDATE configuration SET database_version = database_version + 1";
+
     private DBSchema() { }
 
     public static void createTables() {
@@ -14,7 +20,8 @@ public class DBSchema {
                 name TEXT NOT NULL,
                 email TEXT UNIQUE NOT NULL,
                 password_hash TEXT NOT NULL,
-                registration_code TEXT
+                registration_code TEXT,
+                session_generation INTEGER NOT NULL DEFAULT 0
             );
 
             CREATE TABLE IF NOT EXISTS Student (
@@ -22,7 +29,8 @@ public class DBSchema {
                 student_number TEXT UNIQUE NOT NULL,
                 name TEXT NOT NULL,
                 email TEXT UNIQUE NOT NULL,
-                password_hash TEXT NOT NULL
+                password_hash TEXT NOT NULL,
+                session_generation INTEGER NOT NULL DEFAULT 0
             );
 
             CREATE TABLE IF NOT EXISTS Question (
@@ -35,6 +43,8 @@ public class DBSchema {
                 FOREIGN KEY (teacher_id) REFERENCES Docentes(id_teacher)
             );
 
+            CREATE INDEX IF NOT EXISTS idx_question_teacher ON Question (teacher_id, id_question);
+
             CREATE TABLE IF NOT EXISTS Option (
                 id_option INTEGER PRIMARY KEY AUTOINCREMENT,
                 question_id INTEGER NOT NULL,
@@ -56,12 +66,138 @@ public class DBSchema {
                 FOREIGN KEY (question_id) REFERENCES Question(id_question)
             );
             
+            CREATE INDEX IF NOT EXISTS idx_answer_question ON Answer (question_id, selected_option);
+
             CREATE TABLE IF NOT EXISTS configuration (
                 database_version INTEGER NOT NULL DEFAULT 0,
                 teacher_code     INTEGER NOT NULL DEFAULT 1509442
             );
+
+            CREATE TABLE IF NOT EXISTS SessionKey (
+                id      INTEGER PRIMARY KEY CHECK (id = 1),
+                key_hex TEXT NOT NULL
+            );
+
+            CREATE VIRTUAL TABLE IF NOT EXISTS QuestionFts USING fts5(
+                question_text,
+                content = 'Question',
+                content_rowid = 'id_question'
+            );
+
+            CREATE TABLE IF NOT EXISTS QuestionStats (
+                question_id INTEGER PRIMARY KEY,
+                teacher_id  INTEGER NOT NULL,
+                answers     INTEGER NOT NULL DEFAULT 0,
+                correct     INTEGER NOT NULL DEFAULT 0
+            );
+
+            CREATE INDEX IF NOT EXISTS idx_question_stats_teacher ON QuestionStats (teacher_id, question_id);
+
+            CREATE TABLE IF NOT EXISTS TeacherStats (
+                teacher_id   INTEGER PRIMARY KEY,
+                questions    INTEGER NOT NULL DEFAULT 0,
+                answers      INTEGER NOT NULL DEFAULT 0,
+                correct      INTEGER NOT NULL DEFAULT 0,
+                participants INTEGER NOT NULL DEFAULT 0
+            );
+
+            CREATE TABLE IF NOT EXISTS TeacherParticipant (
+                teacher_id INTEGER NOT NULL,
+                student_id INTEGER NOT NULL,
+                PRIMARY KEY (teacher_id, student_id)
+            ) WITHOUT ROWID;
             """;
 
+        // The *Stats tables are kept up to date by these triggers as questions and answers are written,
+        // so dashboards read one row instead of joining Answer. StatsRepository.rebuild() recomputes them.
+        // (Kept apart from the schema above because trigger bodies contain ';'.)
+        String[] triggers = {
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_question_stats_insert AFTER INSERT ON Question BEGIN
+                INSERT OR IGNORE INTO QuestionStats (question_id, teacher_id) VALUES (NEW.id_question, NEW.teacher_id);
+                INSERT INTO TeacherStats (teacher_id, questions) VALUES (NEW.teacher_id, 1)
+                    ON CONFLICT (teacher_id) DO UPDATE SET questions = questions + 1;
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_question_stats_delete AFTER DELETE ON Question BEGIN
+                DELETE FROM QuestionStats WHERE question_id = OLD.id_question;
+                UPDATE TeacherStats SET questions = questions - 1 WHERE teacher_id = OLD.teacher_id;
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_answer_stats_insert AFTER INSERT ON Answer BEGIN
+                UPDATE QuestionStats SET answers = answers + 1, correct = correct + %1$s
+                    WHERE question_id = NEW.question_id;
+                UPDATE TeacherStats SET answers = answers + 1, correct = correct + %1$s
+                    WHERE teacher_id = (SELECT teacher_id FROM Question WHERE id_question = NEW.question_id);
+                INSERT OR IGNORE INTO TeacherParticipant (teacher_id, student_id)
+                    SELECT teacher_id, NEW.student_id FROM Question WHERE id_question = NEW.question_id;
+            END
+            """.formatted(isCorrect("NEW")),
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_answer_stats_update AFTER UPDATE OF selected_option ON Answer
+            WHEN OLD.selected_option <> NEW.selected_option BEGIN
+                UPDATE QuestionStats SET correct = correct + %1$s - %2$s
+                    WHERE question_id = NEW.question_id;
+                UPDATE TeacherStats SET correct = correct + %1$s - %2$s
+                    WHERE teacher_id = (SELECT teacher_id FROM Question WHERE id_question = NEW.question_id);
+            END
+            """.formatted(isCorrect("NEW"), isCorrect("OLD")),
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_answer_stats_delete AFTER DELETE ON Answer BEGIN
+                UPDATE QuestionStats SET answers = answers - 1, correct = correct - %1$s
+                    WHERE question_id = OLD.question_id;
+                UPDATE TeacherStats SET answers = answers - 1, correct = correct - %1$s
+                    WHERE teacher_id = (SELECT teacher_id FROM Question WHERE id_question = OLD.question_id);
+                DELETE FROM TeacherParticipant
+                    WHERE student_id = OLD.student_id
+                      AND teacher_id = (SELECT teacher_id FROM Question WHERE id_question = OLD.question_id)
+                      AND NOT EXISTS (SELECT 1 FROM Answer a JOIN Question q ON q.id_question = a.question_id
+                                      WHERE a.student_id = OLD.student_id AND q.teacher_id = TeacherParticipant.teacher_id);
+            END
+            """.formatted(isCorrect("OLD")),
+            // QuestionFts is an external-content index: it stores only the tokens, so it is told about every change
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_question_fts_insert AFTER INSERT ON Question BEGIN
+                INSERT INTO QuestionFts (rowid, question_text) VALUES (NEW.id_question, NEW.question_text);
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_question_fts_delete AFTER DELETE ON Question BEGIN
+                INSERT INTO QuestionFts (QuestionFts, rowid, question_text) VALUES ('delete', OLD.id_question, OLD.question_text);
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_question_fts_update AFTER UPDATE OF question_text ON Question BEGIN
+                INSERT INTO QuestionFts (QuestionFts, rowid, question_text) VALUES ('delete', OLD.id_question, OLD.question_text);
+                INSERT INTO QuestionFts (rowid, question_text) VALUES (NEW.id_question, NEW.question_text);
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_participant_insert AFTER INSERT ON TeacherParticipant BEGIN
+                INSERT INTO TeacherStats (teacher_id, participants) VALUES (NEW.teacher_id, 1)
+                    ON CONFLICT (teacher_id) DO UPDATE SET participants = participants + 1;
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_participant_delete AFTER DELETE ON TeacherParticipant BEGIN
+                UPDATE TeacherStats SET participants = participants - 1 WHERE teacher_id = OLD.teacher_id;
+            END
+            """
+        };
+
+        // configuration.database_version counts the writes to the replicated tables, in the transaction
+        // that makes them; replication snapshots are cached by it (derived tables are bumped by whoever
+        // rebuilds them, see StatsRepository.rebuild())
+        List<String> versionTriggers = new ArrayList<>();
+        for (String table : List.of("Docentes", "Student", "Question", "Option", "Answer", "SessionKey")) {
+            for (String op : List.of("INSERT", "UPDATE", "DELETE")) {
+                versionTriggers.add("CREATE TRIGGER IF NOT EXISTS trg_version_" + table.toLowerCase() + "_" + op.toLowerCase()
+                        + " AFTER " + op + " ON " + table + " BEGIN " + BUMP_VERSION + "; END");
+            }
+        }
+
         // 1509442 is the default teacher registration code that equals "1234"
 
         try (Connection conn = ConnectDB.getConnection();
@@ -69,6 +205,13 @@ public class DBSchema {
 
             // Ensure foreign keys enabled for this connection
             stmt.execute("PRAGMA foreign_keys = ON");
+            enableIncrementalVacuum(stmt);
+
+            // the search index has to be filled from Question the first time it is created
+            boolean newFts;
+            try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE name = 'QuestionFts'")) {
+                newFts = !rs.next();
+            }
 
             // Execute each statement individually
             String[] parts = schema.split(";");
@@ -77,11 +220,56 @@ public class DBSchema {
                 if (sql.isEmpty()) continue;
                 stmt.execute(sql);
             }
+            // session tokens are signed with the account's generation (see SessionTokens)
+            addColumnIfMissing(stmt, "Docentes", "session_generation", "INTEGER NOT NULL DEFAULT 0");
+            addColumnIfMissing(stmt, "Student", "session_generation", "INTEGER NOT NULL DEFAULT 0");
+            stmt.execute("INSERT INTO configuration (database_version) SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM configuration)");
+            for (String trigger : triggers) {
+                stmt.execute(trigger);
+            }
+            for (String trigger : versionTriggers) {
+                stmt.execute(trigger);
+            }
+            if (newFts) {
+                stmt.execute("INSERT INTO QuestionFts (QuestionFts) VALUES ('rebuild')");
+            }
         } catch (SQLException ex) {
             throw new IllegalStateException("Failed to create DB schema: " + ex.getMessage(), ex);
         }
     }
 
+    // ArchiveJob gives freed pages back with PRAGMA incremental_vacuum, in steps that don't hold the write
+    // lock for long. A new file takes the mode right away; an existing one only after a full VACUUM,
+    // done once here, before the server takes clients. Copies made with VACUUM INTO keep the mode.
+    private static void enableIncrementalVacuum(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+            if (rs.next() && rs.getInt(1) == 2) return;
+        }
+        stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+        boolean existing;
+        try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master LIMIT 1")) {
+            existing = rs.next();
+        }
+        if (existing) {
+            Log.info("Converting the database to incremental vacuum (one-time VACUUM)...");
+            stmt.execute("VACUUM");
+        }
+    }
+
+    // for databases created before the column was added to the schema above
+    private static void addColumnIfMissing(Statement stmt, String table, String column, String definition) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM pragma_table_info('" + table + "') WHERE name = '" + column + "'")) {
+            if (rs.next()) return;
+        }
+        stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    }
+
+    // 1 when the answer row `row` (NEW/OLD) picked the correct option, else 0
+    private static String isCorrect(String row) {
+        return "(SELECT COUNT(*) FROM Option o WHERE o.question_id = " + row + ".question_id"
+                + " AND o.identifier = " + row + ".selected_option AND o.is_correct)";
+    }
+
     public static void main(String[] args) {
         createTables();
         System.out.println("Tables ensured.");
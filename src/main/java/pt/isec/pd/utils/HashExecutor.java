@@ -0,0 +1,99 @@
+package pt.isec.pd.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs password hashing (PBKDF2) on a fixed pool sized to the CPU, so a burst of logins can't
+// occupy every core and starve socket I/O. The queue is bounded: when it is full, work is
+// rejected at once with RejectedExecutionException instead of piling up behind the storm.
+//   pd.hash.threads  worker threads (default: available processors)
+//   pd.hash.queue    queued hashes before rejecting (default: 8 per thread)
+public final class HashExecutor {
+    private static final int THREADS = Integer.getInteger("pd.hash.threads", Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE = Integer.getInteger("pd.hash.queue", THREADS * 8);
+
+    private static final Metrics.Counter REJECTED = Metrics.counter("hash.rejected");
+    // the pool's own threads hash inline instead of queueing behind themselves
+    private static final ThreadLocal<Boolean> INLINE = ThreadLocal.withInitial(() -> false);
+    private static final ThreadPoolExecutor POOL = createPool();
+
+    private HashExecutor() { }
+
+    private static ThreadPoolExecutor createPool() {
+        AtomicInteger ids = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE), r -> {
+                    Thread t = new Thread(() -> {
+                        hashOnThisThread();
+                        r.run();
+                    }, "hash-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        Metrics.gauge("hash.queued", () -> pool.getQueue().size());
+        Metrics.gauge("hash.active", pool::getActiveCount);
+        return pool;
+    }
+
+    // Runs the task on the hashing pool and waits for its result.
+    // Throws RejectedExecutionException when the pool is saturated.
+    public static <T> T call(Callable<T> task) {
+        if (INLINE.get()) {
+            return runInline(task);
+        }
+        Future<T> f;
+        try {
+            f = POOL.submit(task);
+        } catch (RejectedExecutionException e) {
+            REJECTED.inc();
+            throw e;
+        }
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for hash", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // Queues the task without waiting, for callers that hash many values at once
+    public static <T> Future<T> submit(Callable<T> task) {
+        try {
+            return POOL.submit(task);
+        } catch (RejectedExecutionException e) {
+            REJECTED.inc();
+            throw e;
+        }
+    }
+
+    // Marks a pool thread, whose hashes must not be handed to the pool again
+    private static void hashOnThisThread() {
+        INLINE.set(true);
+    }
+
+    public static int threads() {
+        return THREADS;
+    }
+
+    private static <T> T runInline(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
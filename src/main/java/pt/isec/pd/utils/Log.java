@@ -0,0 +1,217 @@
+package pt.isec.pd.utils;
+
+import pt.isec.pd.common.Message;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Project-wide asynchronous logger.
+// Callers only claim a slot in a preallocated lock-free ring buffer and store the template and its
+// arguments; formatting and console I/O happen on a single background thread. A disabled level costs
+// one volatile read. When the ring is full the entry is dropped (and counted) instead of blocking.
+// Templates use "{}" placeholders. Message arguments are always printed with their secrets redacted.
+// The writer is a daemon: whoever ends the process calls flush() or, last of all, shutdown().
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int CAPACITY = 8192; // power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final long FLUSH_TIMEOUT_NS = 1_000_000_000L;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    // message types whose content carries a secret, and the '|' field holding it
+    private static final Map<String, Integer> SECRET_FIELD = Map.of(
+            "AUTH_REQUEST", 2,
+            "REGISTER_REQUEST", 2,
+            "UPDATE_PROFILE_REQUEST", 2,
+            "RESUME_REQUEST", 0);
+
+    private static final Entry[] ring = new Entry[CAPACITY];
+    private static final AtomicLong head = new AtomicLong(); // next sequence to claim
+    private static volatile long tail = 0;                   // next sequence to print
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile Level threshold = parseLevel(System.getProperty("pd.log.level", "INFO"));
+    private static volatile boolean running = true;
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) ring[i] = new Entry();
+        writer = new Thread(Log::drainLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() { }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    public static void setLevel(Level level) { threshold = level; }
+
+    public static boolean isEnabled(Level level) { return level.ordinal() >= threshold.ordinal(); }
+    public static boolean isDebugEnabled() { return isEnabled(Level.DEBUG); }
+
+    public static long droppedCount() { return dropped.get(); }
+
+    public static void debug(String template) { log(Level.DEBUG, template, null, null, null, null); }
+    public static void debug(String template, Object a) { log(Level.DEBUG, template, a, null, null, null); }
+    public static void debug(String template, Object a, Object b) { log(Level.DEBUG, template, a, b, null, null); }
+    public static void debug(String template, Object a, Object b, Object c) { log(Level.DEBUG, template, a, b, c, null); }
+
+    public static void info(String template) { log(Level.INFO, template, null, null, null, null); }
+    public static void info(String template, Object a) { log(Level.INFO, template, a, null, null, null); }
+    public static void info(String template, Object a, Object b) { log(Level.INFO, template, a, b, null, null); }
+    public static void info(String template, Object a, Object b, Object c) { log(Level.INFO, template, a, b, c, null); }
+
+    public static void warn(String template) { log(Level.WARN, template, null, null, null, null); }
+    public static void warn(String template, Object a) { log(Level.WARN, template, a, null, null, null); }
+    public static void warn(String template, Object a, Object b) { log(Level.WARN, template, a, b, null, null); }
+    public static void warn(String template, Object a, Object b, Object c) { log(Level.WARN, template, a, b, c, null); }
+
+    public static void error(String template) { log(Level.ERROR, template, null, null, null, null); }
+    public static void error(String template, Object a) { log(Level.ERROR, template, a, null, null, null); }
+    public static void error(String template, Object a, Object b) { log(Level.ERROR, template, a, b, null, null); }
+    public static void error(String template, Object a, Object b, Object c) { log(Level.ERROR, template, a, b, c, null); }
+    public static void error(String template, Object a, Object b, Object c, Object d) { log(Level.ERROR, template, a, b, c, d); }
+
+    private static void log(Level level, String template, Object a, Object b, Object c, Object d) {
+        if (level.ordinal() < threshold.ordinal()) return;
+
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+
+        Entry e = ring[(int) (seq & MASK)];
+        e.level = level;
+        e.time = System.currentTimeMillis();
+        e.thread = Thread.currentThread().getName();
+        e.template = template;
+        e.a = a;
+        e.b = b;
+        e.c = c;
+        e.d = d;
+        e.published = seq + 1; // volatile write publishes the fields above
+    }
+
+    private static void drainLoop() {
+        StringBuilder sb = new StringBuilder(256);
+        while (running) {
+            if (!drain(sb)) {
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+        drain(sb);
+    }
+
+    // prints every published entry; returns false when there was nothing to print
+    private static boolean drain(StringBuilder sb) {
+        boolean any = false;
+        long next = tail;
+        while (true) {
+            Entry e = ring[(int) (next & MASK)];
+            if (e.published != next + 1) break;
+
+            sb.setLength(0);
+            TIME.formatTo(Instant.ofEpochMilli(e.time), sb);
+            sb.append(' ').append(e.level).append(" [").append(e.thread).append("] ");
+            format(sb, e.template, e.a, e.b, e.c, e.d);
+            PrintStream out = e.level.ordinal() >= Level.WARN.ordinal() ? System.err : System.out;
+            out.println(sb);
+
+            e.template = null;
+            e.a = e.b = e.c = e.d = null;
+            e.thread = null;
+            tail = ++next;
+            any = true;
+        }
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            System.err.println("[Log] " + lost + " log entries dropped (ring buffer full)");
+        }
+        return any;
+    }
+
+    private static void format(StringBuilder sb, String template, Object a, Object b, Object c, Object d) {
+        int argIndex = 0;
+        int from = 0;
+        int at;
+        while ((at = template.indexOf("{}", from)) >= 0) {
+            sb.append(template, from, at);
+            Object arg = switch (argIndex++) {
+                case 0 -> a;
+                case 1 -> b;
+                case 2 -> c;
+                case 3 -> d;
+                default -> "{}";
+            };
+            appendArg(sb, arg);
+            from = at + 2;
+        }
+        sb.append(template, from, template.length());
+    }
+
+    private static void appendArg(StringBuilder sb, Object arg) {
+        if (arg instanceof Message msg) {
+            sb.append("Message{type='").append(msg.getType()).append("', content='").append(redact(msg)).append("'}");
+        } else if (arg instanceof Throwable t) {
+            sb.append(t.getClass().getSimpleName()).append(": ").append(t.getMessage());
+        } else {
+            sb.append(arg);
+        }
+    }
+
+    // Returns the message content with its secret field (passwords, tokens) masked
+    public static String redact(Message msg) {
+        String content = msg.getContent();
+        Integer field = SECRET_FIELD.get(msg.getType());
+        if (field == null || content == null) return content;
+
+        String[] parts = content.split("\\|", -1);
+        if (parts.length <= field) return "***";
+        parts[field] = "***";
+        return String.join("|", parts);
+    }
+
+    // Waits (up to a second) until everything logged before the call has been printed
+    public static void flush() {
+        long target = head.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NS;
+        while (tail < target && writer.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(1_000_000);
+        }
+    }
+
+    // Prints what is left and stops the writer; entries logged afterwards are not printed
+    public static void shutdown() {
+        running = false;
+        try {
+            writer.join(FLUSH_TIMEOUT_NS / 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Entry {
+        volatile long published;
+        Level level;
+        long time;
+        String thread;
+        String template;
+        Object a, b, c, d;
+    }
+}
@@ -0,0 +1,181 @@
+package pt.isec.pd.utils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Process-wide counters, gauges and latency histograms.
+// Recording is lock-free (LongAdder / atomic bucket increments) so instrumentation can stay on.
+// Values are exposed through JMX (pt.isec.pd:type=Metrics) and, when pd.metrics.port is set,
+// as plain text on http://127.0.0.1:<port>/metrics.
+public final class Metrics {
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static volatile boolean started = false;
+
+    private Metrics() { }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public static Histogram timer(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Registers the JMX bean and, if configured, the local scrape endpoint. Safe to call more than once.
+    public static synchronized void start() {
+        if (started) return;
+        started = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName("pt.isec.pd:type=Metrics"));
+        } catch (Exception e) {
+            Log.warn("[Metrics] Could not register JMX bean: {}", e.getMessage());
+        }
+
+        Integer port = Integer.getInteger("pd.metrics.port");
+        if (port == null) return;
+        try {
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            http.createContext("/metrics", exchange -> {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            http.start(); // default executor: a single thread is plenty for scrapes
+            Log.info("[Metrics] Scrape endpoint on http://127.0.0.1:{}/metrics", port);
+        } catch (IOException e) {
+            Log.warn("[Metrics] Could not start scrape endpoint on port {}: {}", port, e.getMessage());
+        }
+    }
+
+    // Plain-text dump, one "name value" per line, latencies in microseconds
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        new TreeMap<>(counters).forEach((name, c) -> sb.append(name).append(' ').append(c.get()).append('\n'));
+        new TreeMap<>(gauges).forEach((name, g) -> sb.append(name).append(' ').append(g.getAsLong()).append('\n'));
+        new TreeMap<>(histograms).forEach((name, h) -> {
+            sb.append(name).append("_count ").append(h.count()).append('\n');
+            sb.append(name).append("_sum_us ").append(h.sumMicros()).append('\n');
+            sb.append(name).append("_max_us ").append(h.maxMicros()).append('\n');
+            for (double q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+                sb.append(name).append("{quantile=\"").append(q).append("\"} ").append(h.percentileMicros(q * 100)).append('\n');
+            }
+        });
+        return sb.toString();
+    }
+
+    public static final class Counter {
+        private final LongAdder adder = new LongAdder();
+
+        public void inc() { adder.increment(); }
+        public void add(long n) { adder.add(n); }
+        public long get() { return adder.sum(); }
+    }
+
+    // HDR-style histogram of microsecond values: 16 linear sub-buckets per power of two (about 6%
+    // relative error) up to ~2^40 us. Recording is a couple of shifts and one atomic increment.
+    public static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = (41 - SUB_BITS + 1) * SUB_COUNT;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void recordSince(long startNanos) {
+            recordMicros((System.nanoTime() - startNanos) / 1000);
+        }
+
+        public void recordMicros(long micros) {
+            long v = Math.max(0, micros);
+            buckets.incrementAndGet(indexOf(v));
+            count.increment();
+            sum.add(v);
+            if (v > max.get()) max.accumulateAndGet(v, Math::max);
+        }
+
+        private static int indexOf(long v) {
+            if (v < SUB_COUNT) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int idx = (exp - SUB_BITS + 1) * SUB_COUNT + (int) ((v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+            return Math.min(idx, BUCKETS - 1);
+        }
+
+        // upper bound of the values that fall in bucket idx
+        private static long valueOf(int idx) {
+            if (idx < SUB_COUNT) return idx;
+            int exp = idx / SUB_COUNT + SUB_BITS - 1;
+            long sub = idx % SUB_COUNT;
+            return ((SUB_COUNT + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+
+        public long count() { return count.sum(); }
+        public long sumMicros() { return sum.sum(); }
+        public long maxMicros() { return max.get(); }
+
+        public long percentileMicros(double percentile) {
+            long total = count.sum();
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(valueOf(i), max.get());
+            }
+            return max.get();
+        }
+    }
+
+    public interface MetricsMXBean {
+        Map<String, Long> getCounters();
+        Map<String, Long> getLatencyP99Micros();
+        String getScrape();
+    }
+
+    private static final class MetricsBean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> values = new TreeMap<>();
+            counters.forEach((name, c) -> values.put(name, c.get()));
+            gauges.forEach((name, g) -> values.put(name, g.getAsLong()));
+            histograms.forEach((name, h) -> values.put(name + "_count", h.count()));
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getLatencyP99Micros() {
+            Map<String, Long> values = new TreeMap<>();
+            histograms.forEach((name, h) -> values.put(name, h.percentileMicros(99)));
+            return values;
+        }
+
+        @Override
+        public String getScrape() {
+            return scrape();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package pt.isec.pd.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Per-request stage timing. Each handler thread owns one preallocated trace; code on the request
+// path brackets its work with start()/record(stage, t0) and the totals are only formatted when the
+// request turns out to be slower than pd.trace.slowMs. Outside a sampled request every call is a no-op.
+// When a request moves to another thread (pipeline stages, writer), that thread attach()es the trace
+// while it works on the request; the owning thread waits for it before calling end().
+//   pd.trace.sampleRate  fraction of requests traced (0..1, default 1)
+//   pd.trace.slowMs      requests at least this slow are logged with their stage breakdown (default 200)
+public final class RequestTrace {
+    public enum Stage { DECODE, QUEUE, DB_CONNECT, SQL, HASH, REPLY }
+
+    private static final double SAMPLE_RATE = Double.parseDouble(System.getProperty("pd.trace.sampleRate", "1"));
+    private static final long SLOW_NANOS = Long.getLong("pd.trace.slowMs", 200) * 1_000_000L;
+    private static final Stage[] STAGES = Stage.values();
+    private static final ThreadLocal<RequestTrace> OWN = ThreadLocal.withInitial(RequestTrace::new);
+    // trace of the request this thread is working on, null when none
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+    private final long[] stageNanos = new long[STAGES.length];
+    private final int[] stageCalls = new int[STAGES.length];
+    private String type;
+    private long startNanos;
+
+    private RequestTrace() { }
+
+    // Starts tracing a request on this thread; startNanos lets the caller include time spent before
+    // the request type was known (e.g. deserialization)
+    public static void begin(String type, long startNanos) {
+        if (SAMPLE_RATE <= 0 || (SAMPLE_RATE < 1 && ThreadLocalRandom.current().nextDouble() >= SAMPLE_RATE)) return;
+        RequestTrace t = OWN.get();
+        t.type = type;
+        t.startNanos = startNanos;
+        for (int i = 0; i < STAGES.length; i++) {
+            t.stageNanos[i] = 0;
+            t.stageCalls[i] = 0;
+        }
+        CURRENT.set(t);
+    }
+
+    // The trace of the request this thread is working on (null when not tracing), to hand to another thread
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    public static void attach(RequestTrace t) {
+        if (t != null) CURRENT.set(t);
+    }
+
+    public static void detach() {
+        CURRENT.remove();
+    }
+
+    // Timestamp for a stage that is about to start, 0 when this thread isn't tracing
+    public static long start() {
+        return CURRENT.get() != null ? System.nanoTime() : 0;
+    }
+
+    public static void record(Stage stage, long t0) {
+        if (t0 == 0) return;
+        RequestTrace t = CURRENT.get();
+        if (t == null) return;
+        t.stageNanos[stage.ordinal()] += System.nanoTime() - t0;
+        t.stageCalls[stage.ordinal()]++;
+    }
+
+    // Ends the request on this thread and logs it when it was slow
+    public static void end() {
+        RequestTrace t = CURRENT.get();
+        if (t == null) return;
+        CURRENT.remove();
+        long total = System.nanoTime() - t.startNanos;
+        if (total >= SLOW_NANOS && Log.isEnabled(Log.Level.WARN)) {
+            Log.warn("[SlowRequest] {} took {} ms: {}", t.type, total / 1_000_000, t.breakdown(total));
+        }
+    }
+
+    private String breakdown(long total) {
+        StringBuilder sb = new StringBuilder(96);
+        long accounted = 0;
+        for (int i = 0; i < STAGES.length; i++) {
+            if (stageCalls[i] == 0) continue;
+            accounted += stageNanos[i];
+            sb.append(STAGES[i]).append('=').append(stageNanos[i] / 1000).append("us");
+            if (stageCalls[i] > 1) sb.append('(').append(stageCalls[i]).append(" calls)");
+            sb.append(' ');
+        }
+        sb.append("other=").append(Math.max(0, total - accounted) / 1000).append("us");
+        return sb.toString();
+    }
+}
@@ -7,6 +7,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.util.HexFormat;
+import java.util.concurrent.RejectedExecutionException;
 
 public final class SecurityUtils {
     private SecurityUtils() {} // Private constructor to prevent instantiation of this utility class.
@@ -32,7 +33,29 @@ public final class SecurityUtils {
     // The specific algorithm used for hashing. PBKDF2 with HMAC-SHA256 is a strong and widely used standard.
     private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
 
+    // SecretKeyFactory lookups go through the provider list every time; each hashing thread keeps its own.
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("PBKDF2 not available: " + e.getMessage(), e);
+        }
+    });
+
+    private static final Metrics.Histogram HASH_TIMER = Metrics.timer("security.createHash");
+    private static final Metrics.Histogram VERIFY_TIMER = Metrics.timer("security.verify");
+
+    // Hashing runs on the HashExecutor pool; both methods throw RejectedExecutionException when it is saturated.
     public static String createHash(String secretPlain) {
+        long start = System.nanoTime();
+        long t0 = RequestTrace.start();
+        String hash = HashExecutor.call(() -> newHash(secretPlain));
+        HASH_TIMER.recordSince(start);
+        RequestTrace.record(RequestTrace.Stage.HASH, t0);
+        return hash;
+    }
+
+    private static String newHash(String secretPlain) {
         // 1. Generate a new, random salt for this specific password.
         byte[] salt = new byte[SALT_LENGTH];
         RAND.nextBytes(salt);
@@ -61,9 +84,15 @@ public final class SecurityUtils {
             byte[] storedHash = HEX.parseHex(parts[2]);
 
             // 3. Re-compute the hash of the provided plain text secret using the *exact same* salt and parameters.
-            byte[] computedHash = pbkdf2(secretPlain.toCharArray(), salt, iterations, KEY_LENGTH);
+            long start = System.nanoTime();
+            long t0 = RequestTrace.start();
+            byte[] computedHash = HashExecutor.call(() -> pbkdf2(secretPlain.toCharArray(), salt, iterations, KEY_LENGTH));
+            VERIFY_TIMER.recordSince(start);
+            RequestTrace.record(RequestTrace.Stage.HASH, t0);
 
             return MessageDigest.isEqual(storedHash, computedHash);
+        } catch (RejectedExecutionException e) {
+            throw e; // busy is not the same as a wrong password
         } catch (Exception e) {
             return false;
         }
@@ -74,12 +103,13 @@ public final class SecurityUtils {
             // PBEKeySpec holds the parameters for the key derivation.
             PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyLength);
 
-            // Get an instance of the SecretKeyFactory for the specified algorithm.
-            SecretKeyFactory skf = SecretKeyFactory.getInstance(ALGORITHM);
-
             // Generate the secret key (the hash) and return its raw byte representation.
-            return skf.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            try {
+                return FACTORY.get().generateSecret(spec).getEncoded();
+            } finally {
+                spec.clearPassword();
+            }
+        } catch (InvalidKeySpecException e) {
             // These exceptions should not happen if the JRE is configured correctly,
             // as PBKDF2WithHmacSHA256 is a standard algorithm.
             // Throwing an unchecked exception indicates a critical configuration error.
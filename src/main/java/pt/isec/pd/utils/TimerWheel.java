@@ -0,0 +1,169 @@
+package pt.isec.pd.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Hierarchical timing wheel: scheduling and cancelling are O(1) and each tick only visits the timers
+// hashed into the current slot, instead of scanning every pending timer.
+// Level 0 has one slot per tick; each level above covers slotCount times the span of the one below.
+// A timer is filed in the lowest level whose span reaches its deadline and is cascaded one level
+// down when that slot comes up, so far-away deadlines (days) cost a handful of moves, not a visit
+// every rotation.
+// Callbacks run on the wheel thread and must be short (hand heavy work to another executor).
+// A wheel built with an explicit clock has no thread: the caller runs due ticks with advance(), so
+// tests can drive it on simulated time.
+public final class TimerWheel implements AutoCloseable {
+    private final long tickNanos;
+    private final int bits;
+    private final int mask;
+    private final Timeout[][] levels;
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final LongSupplier clock;
+    private final Thread worker;
+    private final long startNanos;
+    private long tick;
+    private volatile boolean running = true;
+
+    public TimerWheel(String name, long tickMs, int slotCount) {
+        this(tickMs, slotCount, System::nanoTime, name);
+    }
+
+    // Manual wheel on the given nanosecond clock; timers only fire from advance()
+    public TimerWheel(long tickMs, int slotCount, LongSupplier nanoClock) {
+        this(tickMs, slotCount, nanoClock, null);
+    }
+
+    private TimerWheel(long tickMs, int slotCount, LongSupplier clock, String threadName) {
+        if (tickMs <= 0 || slotCount < 2 || Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("tickMs must be positive and slotCount a power of two");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.bits = Integer.numberOfTrailingZeros(slotCount);
+        this.mask = slotCount - 1;
+        this.levels = new Timeout[(62 + bits) / bits][slotCount]; // enough levels for any long tick
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+        if (threadName == null) {
+            this.worker = null;
+            return;
+        }
+        this.worker = new Thread(this::runWheel, threadName);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public Timeout schedule(long delayMs, Runnable task) {
+        long deadline = clock.getAsLong() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+        Timeout t = new Timeout(task, deadline);
+        pending.add(t);
+        return t;
+    }
+
+    private void runWheel() {
+        while (running) {
+            long nextTickAt = (tick + 1) * tickNanos;
+            long sleep = nextTickAt - (clock.getAsLong() - startNanos);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            tick();
+        }
+    }
+
+    // Runs every tick that is due by the clock (manual wheels only)
+    public void advance() {
+        if (worker != null) throw new IllegalStateException("This wheel runs on its own thread");
+        while ((tick + 1) * tickNanos <= clock.getAsLong() - startNanos) {
+            tick();
+        }
+    }
+
+    private void tick() {
+        tick++;
+        transferPending();
+        // bring down the timers of every higher-level slot that starts at this tick, top first
+        for (int level = levels.length - 1; level > 0; level--) {
+            if ((tick & ((1L << (bits * level)) - 1)) == 0) {
+                cascade(level, (int) ((tick >>> (bits * level)) & mask));
+            }
+        }
+        expireSlot((int) (tick & mask));
+    }
+
+    private void transferPending() {
+        Timeout t;
+        while ((t = pending.poll()) != null) {
+            if (t.cancelled) continue;
+            t.deadlineTick = Math.max(tick, (t.deadline + tickNanos - 1) / tickNanos);
+            file(t);
+        }
+    }
+
+    private void file(Timeout t) {
+        long delta = t.deadlineTick - tick;
+        int level = 0;
+        while (level < levels.length - 1 && delta >= (1L << (bits * (level + 1)))) {
+            level++;
+        }
+        int idx = (int) ((t.deadlineTick >>> (bits * level)) & mask);
+        t.next = levels[level][idx];
+        levels[level][idx] = t;
+    }
+
+    private void cascade(int level, int idx) {
+        Timeout t = levels[level][idx];
+        levels[level][idx] = null;
+        while (t != null) {
+            Timeout next = t.next;
+            t.next = null;
+            if (!t.cancelled) file(t);
+            t = next;
+        }
+    }
+
+    private void expireSlot(int idx) {
+        Timeout[] slots = levels[0];
+        Timeout t = slots[idx];
+        slots[idx] = null;
+        while (t != null) {
+            Timeout next = t.next;
+            t.next = null;
+            if (!t.cancelled) {
+                try {
+                    t.task.run();
+                } catch (RuntimeException e) {
+                    Log.error("[TimerWheel] Timer task failed: {}", e.getMessage());
+                }
+            }
+            t = next;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (worker != null) worker.interrupt();
+    }
+
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long deadlineTick;
+        private Timeout next;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
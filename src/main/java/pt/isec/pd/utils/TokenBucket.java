@@ -0,0 +1,57 @@
+package pt.isec.pd.utils;
+
+import java.util.function.LongSupplier;
+
+// Classic token bucket: tokens refill continuously at `ratePerSecond` up to `capacity`.
+// Thread-safe; one bucket can be shared by several consumers to enforce a common budget.
+public final class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private final LongSupplier nanoClock;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this(ratePerSecond, capacity, System::nanoTime);
+    }
+
+    // nanoClock is injectable so tests can run on a simulated clock
+    TokenBucket(double ratePerSecond, double capacity, LongSupplier nanoClock) {
+        if (ratePerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Rate and capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000.0;
+        this.nanoClock = nanoClock;
+        this.tokens = capacity;
+        this.lastRefill = nanoClock.getAsLong();
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+
+    public synchronized boolean tryAcquire(double amount) {
+        refill(nanoClock.getAsLong());
+        if (tokens >= amount) {
+            tokens -= amount;
+            return true;
+        }
+        return false;
+    }
+
+    // Blocks until `amount` tokens were taken. Amounts larger than the capacity are allowed
+    // and simply drive the bucket negative, so the next callers wait for the debt to be repaid.
+    public void acquire(double amount) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill(nanoClock.getAsLong());
+            tokens -= amount;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+}
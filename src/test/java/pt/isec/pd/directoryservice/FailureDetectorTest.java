@@ -0,0 +1,126 @@
+package pt.isec.pd.directoryservice;
+
+import org.junit.jupiter.api.Test;
+import pt.isec.pd.utils.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Failover latency and false positives of the phi-accrual detector under simulated packet loss, on a
+// simulated clock: the detector and its timer wheel are driven in 10 ms steps, so the bounds are exact
+// and the test takes milliseconds. Servers drop heartbeats with a fixed probability and deliver the
+// rest with up to 100 ms of jitter, both from a seeded Random, so every run sees the same pattern.
+// With the defaults a single lost heartbeat must never get a server suspected.
+class FailureDetectorTest {
+    private static final double PHI_THRESHOLD = 8;
+    private static final long INTERVAL_MS = 5000;
+    private static final long MAX_DETECTION_MS = 15000;
+    private static final long TICK_MS = 100;
+    private static final long STEP_MS = 10;
+
+    private long nowNanos = 1_000_000_000L;
+    private final Map<String, Long> lastDelivered = new HashMap<>();
+    // silence (ms since the last delivered heartbeat) at each suspicion
+    private final List<Long> suspicions = new ArrayList<>();
+
+    @Test
+    void detectsSilentServerWithinBoundUnderPacketLoss() {
+        for (double loss : new double[] {0.0, 0.1, 0.3}) {
+            for (int seed = 0; seed < 20; seed++) {
+                long latency = failoverLatency(loss, new Random(seed));
+                assertTrue(latency >= 2 * INTERVAL_MS, "loss " + loss + ": suspected after only " + latency + " ms");
+                assertTrue(latency <= MAX_DETECTION_MS + TICK_MS, "loss " + loss + ": suspected after " + latency + " ms");
+            }
+        }
+    }
+
+    @Test
+    void withoutLossDetectsBeforeTheCap() {
+        long latency = failoverLatency(0.0, new Random(1));
+        assertTrue(latency < MAX_DETECTION_MS, "took " + latency + " ms");
+    }
+
+    @Test
+    void falsePositiveRateUnderPacketLoss() {
+        int servers = 20;
+        int heartbeats = 500; // per server, about 42 simulated minutes
+        assertEquals(0, runSuspicions(servers, heartbeats, 0.0));
+        // only two or more heartbeats lost in a row may get a live server suspected
+        assertTrue(runSuspicions(servers, heartbeats, 0.1) <= 0.02 * servers * heartbeats);
+        assertTrue(suspicions.stream().allMatch(silence -> silence >= 2 * INTERVAL_MS - 100), "silences " + suspicions);
+        assertTrue(runSuspicions(servers, heartbeats, 0.3) <= 0.15 * servers * heartbeats);
+        assertTrue(suspicions.stream().allMatch(silence -> silence >= 2 * INTERVAL_MS - 100), "silences " + suspicions);
+    }
+
+    // Live servers sending heartbeats with the given loss; returns how many suspicions were raised
+    private int runSuspicions(int servers, int heartbeats, double loss) {
+        suspicions.clear();
+        TimerWheel wheel = newWheel();
+        FailureDetector detector = newDetector(wheel);
+        Random random = new Random(42);
+        long[] nextBeat = new long[servers];
+        for (int s = 0; s < servers; s++) {
+            nextBeat[s] = nowMs() + random.nextInt((int) INTERVAL_MS);
+        }
+        long end = nowMs() + heartbeats * INTERVAL_MS;
+        while (nowMs() < end) {
+            for (int s = 0; s < servers; s++) {
+                if (nowMs() < nextBeat[s]) continue;
+                if (random.nextDouble() >= loss) deliver(detector, "server-" + s);
+                nextBeat[s] += INTERVAL_MS + random.nextInt(101) - 50;
+            }
+            step(wheel);
+        }
+        wheel.close();
+        return suspicions.size();
+    }
+
+    // Sends 200 heartbeats with the given loss, then goes silent; returns the ms from the last
+    // delivered heartbeat to the suspicion
+    private long failoverLatency(double loss, Random random) {
+        TimerWheel wheel = newWheel();
+        FailureDetector detector = newDetector(wheel);
+        String addr = "10.0.0.1:5001";
+        deliver(detector, addr);
+        for (int i = 0; i < 200; i++) {
+            long due = nowMs() + INTERVAL_MS + random.nextInt(101) - 50;
+            while (nowMs() < due) step(wheel);
+            if (random.nextDouble() >= loss) deliver(detector, addr);
+        }
+        suspicions.clear();
+        long deadline = nowMs() + 2 * MAX_DETECTION_MS;
+        while (suspicions.isEmpty() && nowMs() < deadline) step(wheel);
+        wheel.close();
+        assertEquals(1, suspicions.size(), "suspected once after going silent");
+        return suspicions.get(0);
+    }
+
+    private void deliver(FailureDetector detector, String addr) {
+        lastDelivered.put(addr, nowMs());
+        detector.heartbeat(addr);
+    }
+
+    private TimerWheel newWheel() {
+        return new TimerWheel(TICK_MS, 512, () -> nowNanos);
+    }
+
+    private FailureDetector newDetector(TimerWheel wheel) {
+        return new FailureDetector(addr -> suspicions.add(nowMs() - lastDelivered.get(addr)),
+                PHI_THRESHOLD, INTERVAL_MS, INTERVAL_MS, MAX_DETECTION_MS, this::nowMs, wheel);
+    }
+
+    private void step(TimerWheel wheel) {
+        nowNanos += STEP_MS * 1_000_000;
+        wheel.advance();
+    }
+
+    private long nowMs() {
+        return nowNanos / 1_000_000;
+    }
+}
@@ -0,0 +1,115 @@
+package pt.isec.pd.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The scramble must be a bijection with a working inverse, and the sequence must resume past every
+// code and every question id the DB has seen
+class AccessCodesTest {
+    private static final long MASK = (1L << 30) - 1;
+
+    private Connection db;
+
+    @BeforeEach
+    void openDb() throws SQLException {
+        AccessCodes.reset();
+        db = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement st = db.createStatement()) {
+            st.execute("CREATE TABLE Question (id_question INTEGER PRIMARY KEY AUTOINCREMENT, access_code TEXT UNIQUE NOT NULL)");
+        }
+    }
+
+    @AfterEach
+    void closeDb() throws SQLException {
+        db.close();
+        AccessCodes.reset();
+    }
+
+    @Test
+    void unscrambleInvertsScramble() {
+        Random rnd = new Random(1);
+        long[] edges = {0, 1, 2, MASK - 1, MASK, 1L << 15, (1L << 15) - 1};
+        for (long x : edges) {
+            assertEquals(x, AccessCodes.unscramble(AccessCodes.scramble(x)), "x=" + x);
+            assertEquals(x, AccessCodes.scramble(AccessCodes.unscramble(x)), "x=" + x);
+        }
+        for (int i = 0; i < 100_000; i++) {
+            long x = rnd.nextLong() & MASK;
+            assertEquals(x, AccessCodes.unscramble(AccessCodes.scramble(x)), "x=" + x);
+        }
+    }
+
+    @Test
+    void consecutiveNumbersGiveDistinctCodes() {
+        Set<String> codes = new HashSet<>();
+        for (long x = 0; x < 200_000; x++) {
+            String code = AccessCodes.encode(AccessCodes.scramble(x));
+            assertEquals(AccessCodes.LENGTH, code.length());
+            assertTrue(codes.add(code), "duplicate code " + code + " at " + x);
+            assertEquals(x, AccessCodes.decode(code));
+        }
+    }
+
+    @Test
+    void decodeRejectsForeignCodes() {
+        assertEquals(-1, AccessCodes.decode(null));
+        assertEquals(-1, AccessCodes.decode("ABC"));
+        assertEquals(-1, AccessCodes.decode("ABCDEFG"));
+        assertEquals(-1, AccessCodes.decode("ABCDEI")); // I, L, O and U are not Crockford digits
+        assertEquals(-1, AccessCodes.decode("abcdef"));
+    }
+
+    @Test
+    void startsAtOneOnAnEmptyDb() throws SQLException {
+        assertEquals(1, AccessCodes.decode(AccessCodes.next(db)));
+        assertEquals(2, AccessCodes.decode(AccessCodes.next(db)));
+    }
+
+    @Test
+    void resumesAfterTheHighestCodeInTheDb() throws SQLException {
+        insert(1, 40);
+        insert(2, 7);
+        assertEquals(41, AccessCodes.decode(AccessCodes.next(db)));
+    }
+
+    @Test
+    void neverGoesBelowTheLastQuestionId() throws SQLException {
+        // questions 1..500 were created and then archived with their codes
+        insert(500, 500);
+        try (Statement st = db.createStatement()) {
+            st.execute("DELETE FROM Question");
+        }
+        assertEquals(501, AccessCodes.decode(AccessCodes.next(db)));
+    }
+
+    @Test
+    void ignoresCodesOutsideTheScheme() throws SQLException {
+        try (PreparedStatement ps = db.prepareStatement("INSERT INTO Question (id_question, access_code) VALUES (?, ?)")) {
+            ps.setLong(1, 1);
+            ps.setString(2, "XYZ"); // decodes to -1
+            ps.executeUpdate();
+        }
+        assertEquals(2, AccessCodes.decode(AccessCodes.next(db)));
+    }
+
+    private void insert(long id, long seq) throws SQLException {
+        try (PreparedStatement ps = db.prepareStatement("INSERT INTO Question (id_question, access_code) VALUES (?, ?)")) {
+            ps.setLong(1, id);
+            ps.setString(2, AccessCodes.encode(AccessCodes.scramble(seq)));
+            ps.executeUpdate();
+        }
+    }
+}
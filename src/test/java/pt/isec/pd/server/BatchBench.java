@@ -0,0 +1,152 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.common.Message;
+import pt.isec.pd.utils.DBSchema;
+import pt.isec.pd.utils.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// CREATE_QUESTION sent one request at a time against the same requests in one BATCH (a plain timing
+// loop, not JMH). Runs the client handlers in-process on a loopback socket; with a round trip given,
+// the client goes through a proxy that delays every chunk by half of it in each direction:
+//   mvn -q test-compile
+//   java -Dpd.data.db=/tmp/batch.db -cp target/classes:target/test-classes:<sqlite-jdbc jar> \
+//       pt.isec.pd.server.BatchBench [requests] [rttMs]
+public final class BatchBench {
+    private static final String EMAIL = "batch-bench@isec.pt";
+    private static final String PASSWORD = "benchmark-password";
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private BatchBench() { }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rttMs = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        Log.setLevel(Log.Level.WARN);
+        DBSchema.createTables();
+        // act as the principal, writes are refused otherwise
+        ReplicaState.setLocalCopyPort(1);
+        ReplicaState.setPrincipal("127.0.0.1:1");
+        UsersRepository.registerTeacher(EMAIL, PASSWORD, "Bench", "1509442");
+
+        ServerSocket server = new ServerSocket(0);
+        accept(server, s -> new ClientHandler(s).start());
+        int port = server.getLocalPort();
+        if (rttMs > 0) port = delayProxy(port, rttMs / 2);
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            Message auth = call(out, in, new Message("AUTH_REQUEST", "DOCENTE|" + EMAIL + "|" + PASSWORD));
+            if (!"AUTH_SUCCESS".equals(auth.getType())) throw new IllegalStateException("login failed: " + auth);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                Message reply = call(out, in, createQuestion(i));
+                if (!"CREATE_QUESTION_SUCCESS".equals(reply.getType())) throw new IllegalStateException(reply.toString());
+            }
+            report("one by one", requests, start);
+
+            ArrayList<Message> batch = new ArrayList<>();
+            for (int i = 0; i < requests; i++) batch.add(createQuestion(requests + i));
+            start = System.nanoTime();
+            Message reply = call(out, in, new Message("BATCH", "", batch));
+            if (!"BATCH_RESPONSE".equals(reply.getType())) throw new IllegalStateException(reply.toString());
+            report("batched", requests, start);
+        }
+        server.close();
+    }
+
+    private static Message createQuestion(int i) {
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        return new Message("CREATE_QUESTION", "Benchmark question " + i + "|" + start.format(DATE) + "|"
+                + start.plusMinutes(5).format(DATE) + "|a|yes|no");
+    }
+
+    private static Message call(ObjectOutputStream out, ObjectInputStream in, Message request) throws Exception {
+        out.writeObject(request);
+        out.flush();
+        out.reset();
+        return (Message) in.readObject();
+    }
+
+    private static void report(String label, int requests, long start) {
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("%-10s %d requests in %d ms (%.0f req/s)%n", label, requests, ms, requests * 1000.0 / Math.max(ms, 1));
+    }
+
+    private interface Handler {
+        void accept(Socket s) throws IOException;
+    }
+
+    private static void accept(ServerSocket server, Handler handler) {
+        Thread t = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    handler.accept(server.accept());
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "bench-accept");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Forwards to targetPort, holding every chunk for delayMs in each direction (order is kept)
+    private static int delayProxy(int targetPort, int delayMs) throws IOException {
+        ServerSocket proxy = new ServerSocket(0);
+        accept(proxy, client -> {
+            Socket target = new Socket("localhost", targetPort);
+            client.setTcpNoDelay(true);
+            target.setTcpNoDelay(true);
+            pump(client.getInputStream(), target.getOutputStream(), delayMs);
+            pump(target.getInputStream(), client.getOutputStream(), delayMs);
+        });
+        return proxy.getLocalPort();
+    }
+
+    private static void pump(InputStream from, OutputStream to, int delayMs) {
+        ScheduledExecutorService delayed = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bench-delay");
+            t.setDaemon(true);
+            return t;
+        });
+        Thread t = new Thread(() -> {
+            byte[] buf = new byte[64 * 1024];
+            try {
+                int n;
+                while ((n = from.read(buf)) > 0) {
+                    byte[] chunk = Arrays.copyOf(buf, n);
+                    delayed.schedule(() -> {
+                        try {
+                            to.write(chunk);
+                            to.flush();
+                        } catch (IOException ignored) {
+                            // the other side went away; the reader notices next
+                        }
+                    }, delayMs, TimeUnit.MILLISECONDS);
+                }
+            } catch (IOException ignored) {
+                // connection closed
+            }
+        }, "bench-pump");
+        t.setDaemon(true);
+        t.start();
+    }
+}
@@ -0,0 +1,68 @@
+package pt.isec.pd.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Keyword search input turned into an FTS5 MATCH expression: every keyword becomes a quoted phrase,
+// so nothing a user types is read as FTS5 syntax
+class QuestionsRepositoryTest {
+
+    @Test
+    void quotesEveryKeyword() {
+        assertEquals("\"redes\" \"tcp\"", QuestionsRepository.toMatchExpression("  redes   tcp "));
+    }
+
+    @Test
+    void keepsATrailingStarAsAPrefixMatch() {
+        assertEquals("\"prot\"*", QuestionsRepository.toMatchExpression("prot*"));
+        assertEquals("\"a*b\"", QuestionsRepository.toMatchExpression("a*b"));
+    }
+
+    @Test
+    void doublesQuotesInsideKeywords() {
+        assertEquals("\"say\" \"\"\"hi\"\"\"", QuestionsRepository.toMatchExpression("say \"hi\""));
+        assertEquals("\"\"\"\"", QuestionsRepository.toMatchExpression("\""));
+    }
+
+    @Test
+    void neutralisesFts5Syntax() {
+        assertEquals("\"a\" \"OR\" \"b\"", QuestionsRepository.toMatchExpression("a OR b"));
+        assertEquals("\"NEAR(a\" \"b)\"", QuestionsRepository.toMatchExpression("NEAR(a b)"));
+        assertEquals("\"question_text:x\"", QuestionsRepository.toMatchExpression("question_text:x"));
+        assertEquals("\"-x\" \"^y\"", QuestionsRepository.toMatchExpression("-x ^y"));
+    }
+
+    @Test
+    void hostileInputIsValidFts5() throws SQLException {
+        String[] inputs = {"a OR b", "NEAR(a b)", "x AND", "(", ")", "\"", "\"\"\"", "col:x", "-x", "^x", "+", "a\"b*",
+                "** *x*", "\\", "'", "a;DROP TABLE Question"};
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement st = c.createStatement()) {
+            st.execute("CREATE VIRTUAL TABLE t USING fts5(question_text)");
+            st.execute("INSERT INTO t VALUES ('a OR b x')");
+            try (PreparedStatement ps = c.prepareStatement("SELECT count(*) FROM t WHERE t MATCH ?")) {
+                for (String input : inputs) {
+                    ps.setString(1, QuestionsRepository.toMatchExpression(input));
+                    try (ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void dropsEmptyKeywords() {
+        assertEquals("", QuestionsRepository.toMatchExpression("   "));
+        assertEquals("", QuestionsRepository.toMatchExpression("* *"));
+        assertEquals("\"x\"", QuestionsRepository.toMatchExpression("* x"));
+    }
+}
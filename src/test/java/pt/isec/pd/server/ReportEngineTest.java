@@ -0,0 +1,34 @@
+package pt.isec.pd.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Question text in report rows: rows are split on '\n' and fields on '|', so the text must carry neither
+class ReportEngineTest {
+
+    @Test
+    void leavesPlainTextAlone() {
+        assertEquals("What is TCP? (a, b)", ReportEngine.escapeField("What is TCP? (a, b)"));
+        assertEquals("", ReportEngine.escapeField(null));
+    }
+
+    @Test
+    void escapesSeparators() {
+        assertEquals("a%7Cb%0Ac%0D%0Ad", ReportEngine.escapeField("a|b\nc\r\nd"));
+        String row = "1|ABC|s|e|0|0|0|a=0*|" + ReportEngine.escapeField("x|y\nz");
+        assertFalse(row.contains("\n"));
+        assertEquals(9, row.split("\\|").length);
+    }
+
+    @Test
+    void roundTripsWithPercentDecoding() {
+        String text = "100% sure | \"maybe\"\nor not";
+        assertEquals(text, URLDecoder.decode(ReportEngine.escapeField(text), StandardCharsets.UTF_8));
+        assertEquals("%2525", ReportEngine.escapeField("%25"));
+    }
+}
@@ -0,0 +1,114 @@
+package pt.isec.pd.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pt.isec.pd.common.Message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Expiry, generation checks and byte-bounded eviction of the results cache, on a simulated clock
+class ResultCacheTest {
+    private static final long TTL_MS = Long.getLong("pd.resultCache.ttlMinutes", 60) * 60_000L;
+    private static final long MAX_BYTES = Long.getLong("pd.resultCache.maxBytes", 16L * 1024 * 1024);
+
+    private long now = 1_000_000;
+
+    @BeforeEach
+    void emptyCache() {
+        ResultCache.clockMs = () -> now;
+        ResultCache.clear();
+    }
+
+    @AfterEach
+    void realClock() {
+        ResultCache.clear();
+        ResultCache.clockMs = System::currentTimeMillis;
+    }
+
+    private static Message reply(String content) {
+        return new Message("QUESTION_RESULTS_SUCCESS", content);
+    }
+
+    private static void put(String code, Message reply) {
+        ResultCache.put(code, 1, "prof@isec.pt", reply, ResultCache.generation());
+    }
+
+    @Test
+    void servesTheStoredReply() {
+        Message reply = reply("a|3\nb|1");
+        put("ABC123", reply);
+        ResultCache.Entry e = ResultCache.get("ABC123");
+        assertNotNull(e);
+        assertSame(reply, e.reply());
+        assertEquals("prof@isec.pt", e.ownerEmail());
+    }
+
+    @Test
+    void expiresAfterTheTtl() {
+        put("ABC123", reply("x"));
+        now += TTL_MS - 1;
+        assertNotNull(ResultCache.get("ABC123"));
+        now += 1;
+        assertNull(ResultCache.get("ABC123"));
+        assertEquals(0, ResultCache.bytes(), "an expired entry still counted");
+    }
+
+    @Test
+    void dropsARowReadBeforeAnInvalidation() {
+        long read = ResultCache.generation();
+        ResultCache.invalidate("ABC123"); // answers were saved while the results were being read
+        ResultCache.put("ABC123", 1, "prof@isec.pt", reply("stale"), read);
+        assertNull(ResultCache.get("ABC123"));
+    }
+
+    @Test
+    void dropsARowReadBeforeAClear() {
+        long read = ResultCache.generation();
+        ResultCache.clear();
+        ResultCache.put("ABC123", 1, "prof@isec.pt", reply("stale"), read);
+        assertNull(ResultCache.get("ABC123"));
+    }
+
+    @Test
+    void invalidateRemovesOnlyThatCode() {
+        put("AAA111", reply("a"));
+        put("BBB222", reply("b"));
+        ResultCache.invalidate("AAA111");
+        assertNull(ResultCache.get("AAA111"));
+        assertNotNull(ResultCache.get("BBB222"));
+    }
+
+    @Test
+    void replacingAnEntryKeepsTheByteCountRight() {
+        put("ABC123", reply("x".repeat(1000)));
+        long one = ResultCache.bytes();
+        put("ABC123", reply("x".repeat(1000)));
+        assertEquals(one, ResultCache.bytes());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedPastTheByteBound() {
+        String big = "x".repeat((int) (MAX_BYTES / 8)); // about a quarter of the bound each
+        put("AAA111", reply(big));
+        put("BBB222", reply(big));
+        put("CCC333", reply(big));
+        assertNotNull(ResultCache.get("AAA111")); // now BBB222 is the least recently used
+        put("DDD444", reply(big));
+        put("EEE555", reply(big));
+        assertTrue(ResultCache.bytes() <= MAX_BYTES);
+        assertNull(ResultCache.get("BBB222"));
+        assertNotNull(ResultCache.get("EEE555"));
+    }
+
+    @Test
+    void neverStoresAReplyLargerThanTheBound() {
+        put("ABC123", reply("x".repeat((int) (MAX_BYTES / 2) + 1)));
+        assertNull(ResultCache.get("ABC123"));
+        assertEquals(0, ResultCache.bytes());
+    }
+}
@@ -0,0 +1,117 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.DBSchema;
+import pt.isec.pd.utils.Log;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+// Keyword search over question text: the FTS5 index against the LIKE scan it replaced (a plain timing
+// loop, not JMH). Fills a new DB with questions of 12 words drawn uniformly from 2000, so each word
+// appears in about 600 of 100k questions, then times both queries with the connection included:
+//   mvn -q test-compile
+//   java -Dpd.data.db=/tmp/search.db -cp target/classes:target/test-classes:<sqlite-jdbc jar> \
+//       pt.isec.pd.server.SearchBench [questions]
+// The DB file must not exist yet.
+public final class SearchBench {
+    private static final String EMAIL = "bench@isec.pt";
+    private static final int WORDS = 2000;
+    private static final int WORDS_PER_QUESTION = 12;
+    private static final int ROUNDS = 20;
+    private static final int PAGE_SIZE = 20;
+
+    private SearchBench() { }
+
+    public static void main(String[] args) throws SQLException {
+        int questions = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        if (Files.exists(Path.of(ConnectDB.getDatabaseFile()))) {
+            throw new IllegalStateException("pass a new DB file with -Dpd.data.db, " + ConnectDB.getDatabaseFile() + " exists");
+        }
+        Log.setLevel(Log.Level.WARN);
+        DBSchema.createTables();
+        fill(questions, new Random(42));
+
+        long start = System.nanoTime();
+        try (Connection c = ConnectDB.getConnection(); Statement st = c.createStatement()) {
+            st.execute("INSERT INTO QuestionFts (QuestionFts) VALUES ('rebuild')");
+        }
+        System.out.printf("%d questions, FTS rebuild: %d ms%n", questions, (System.nanoTime() - start) / 1_000_000);
+
+        compare("no match", "zzz");
+        compare("two keywords", "w17 w1234");
+        compare("common word", "w42");
+    }
+
+    private static void fill(int questions, Random rnd) throws SQLException {
+        try (Connection c = ConnectDB.getConnection()) {
+            c.setAutoCommit(false);
+            long teacherId;
+            try (Statement st = c.createStatement()) {
+                st.executeUpdate("INSERT INTO Docentes (name, email, password_hash) VALUES ('Bench', '" + EMAIL + "', 'x')");
+                try (ResultSet rs = st.executeQuery("SELECT last_insert_rowid()")) {
+                    rs.next();
+                    teacherId = rs.getLong(1);
+                }
+            }
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO Question"
+                    + " (teacher_id, question_text, access_code, start_datetime, end_datetime) VALUES (?, ?, ?, ?, ?)")) {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < questions; i++) {
+                    text.setLength(0);
+                    for (int w = 0; w < WORDS_PER_QUESTION; w++) {
+                        if (w > 0) text.append(' ');
+                        text.append('w').append(rnd.nextInt(WORDS));
+                    }
+                    ps.setLong(1, teacherId);
+                    ps.setString(2, text.toString());
+                    ps.setString(3, "B" + i);
+                    ps.setString(4, "2000-01-01 00:00:00");
+                    ps.setString(5, "2000-01-01 01:00:00");
+                    ps.addBatch();
+                    if (i % 1000 == 999) ps.executeBatch();
+                }
+                ps.executeBatch();
+            }
+            c.commit();
+        }
+    }
+
+    private static void compare(String label, String keywords) throws SQLException {
+        int hits = 0;
+        for (int i = 0; i < 3; i++) {
+            like(keywords);
+            hits = QuestionsRepository.searchQuestions(EMAIL, keywords, 0, PAGE_SIZE).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) like(keywords);
+        double likeMs = (System.nanoTime() - start) / 1e6 / ROUNDS;
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) QuestionsRepository.searchQuestions(EMAIL, keywords, 0, PAGE_SIZE);
+        double ftsMs = (System.nanoTime() - start) / 1e6 / ROUNDS;
+        System.out.printf("%-13s LIKE %.1f ms, FTS %.1f ms (first page: %d rows)%n", label + ":", likeMs, ftsMs, hits);
+    }
+
+    // the scan SEARCH_QUESTIONS used before the index: every keyword as a substring, newest first
+    private static void like(String keywords) throws SQLException {
+        String[] words = keywords.split(" ");
+        StringBuilder sql = new StringBuilder("SELECT q.id_question, q.access_code, q.start_datetime, q.end_datetime,"
+                + " q.question_text FROM Question q JOIN Docentes d ON d.id_teacher = q.teacher_id WHERE d.email = ?");
+        for (int i = 0; i < words.length; i++) sql.append(" AND q.question_text LIKE ?");
+        sql.append(" ORDER BY q.id_question DESC LIMIT ?");
+        try (Connection c = ConnectDB.getConnection(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            ps.setString(1, EMAIL);
+            for (int i = 0; i < words.length; i++) ps.setString(i + 2, "%" + words[i] + "%");
+            ps.setInt(words.length + 2, PAGE_SIZE + 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) rs.getString(5);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package pt.isec.pd.server;
+
+import pt.isec.pd.utils.DBSchema;
+import pt.isec.pd.utils.Log;
+import pt.isec.pd.utils.SecurityUtils;
+
+// CPU cost of resuming a session with its token versus logging in again with the password, the
+// figures behind the reconnection-storm estimate (a plain timing loop, not JMH):
+//   mvn -q test-compile
+//   java -Dpd.data.db=/tmp/bench.db -cp target/classes:target/test-classes:<sqlite-jdbc jar> \
+//       pt.isec.pd.server.SessionTokenBench [clients]
+// Uses (and creates if needed) the DB given by pd.data.db for the session key and a bench student.
+public final class SessionTokenBench {
+    private static final int TOKEN_ROUNDS = 100_000;
+    private static final int PASSWORD_ROUNDS = 50;
+
+    private SessionTokenBench() { }
+
+    public static void main(String[] args) {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        Log.setLevel(Log.Level.WARN);
+        DBSchema.createTables();
+        // act as the principal so the session key gets created
+        ReplicaState.setLocalCopyPort(1);
+        ReplicaState.setPrincipal("127.0.0.1:1");
+
+        UsersRepository.registerStudent("bench@isec.pt", "benchmark-password", "Bench", "bench-0");
+        String token = SessionTokens.issue("STUDENT", "bench@isec.pt", "Bench",
+                UsersRepository.sessionGeneration("STUDENT", "bench@isec.pt"));
+        if (token == null) throw new IllegalStateException("no session key");
+        for (int i = 0; i < TOKEN_ROUNDS; i++) SessionTokens.verify(token);
+        long start = System.nanoTime();
+        for (int i = 0; i < TOKEN_ROUNDS; i++) {
+            if (SessionTokens.verify(token) == null) throw new IllegalStateException("token rejected");
+        }
+        double tokenUs = (System.nanoTime() - start) / 1e3 / TOKEN_ROUNDS;
+
+        String stored = SecurityUtils.createHash("benchmark-password");
+        for (int i = 0; i < 5; i++) SecurityUtils.verify("benchmark-password", stored);
+        start = System.nanoTime();
+        for (int i = 0; i < PASSWORD_ROUNDS; i++) SecurityUtils.verify("benchmark-password", stored);
+        double passwordUs = (System.nanoTime() - start) / 1e3 / PASSWORD_ROUNDS;
+
+        System.out.printf("token resume: %.2f us each, password login: %.0f us each (%.0fx)%n",
+                tokenUs, passwordUs, passwordUs / tokenUs);
+        System.out.printf("%d reconnecting clients: %.2f ms of CPU with tokens, %.0f ms with passwords%n",
+                clients, clients * tokenUs / 1000, clients * passwordUs / 1000);
+    }
+}
@@ -0,0 +1,74 @@
+package pt.isec.pd.server;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// The generation check that keeps a lookup racing with an invalidation from caching the old row
+class UserCacheTest {
+    private static final String EMAIL = "Ana@isec.pt";
+
+    @BeforeEach
+    void emptyCache() {
+        UserCache.clear();
+    }
+
+    private static UserCache.CachedUser user(String name) {
+        return new UserCache.CachedUser(1, name, "hash", "STUDENT", 0);
+    }
+
+    @Test
+    void storesARowReadAtTheCurrentGeneration() {
+        UserCache.put(user("Ana"), EMAIL, UserCache.generation());
+        assertEquals("Ana", UserCache.get("STUDENT", EMAIL).name());
+        assertEquals("Ana", UserCache.get("STUDENT", "ana@ISEC.pt").name(), "emails are case-insensitive");
+        assertNull(UserCache.get("DOCENTE", EMAIL), "teachers and students are cached apart");
+    }
+
+    @Test
+    void dropsARowReadBeforeAnInvalidation() {
+        // a login misses and reads the account...
+        long read = UserCache.generation();
+        // ...while a profile update commits and invalidates it...
+        UserCache.invalidate("STUDENT", EMAIL);
+        // ...so the row the login read is already stale and must not be cached
+        UserCache.put(user("Old name"), EMAIL, read);
+        assertNull(UserCache.get("STUDENT", EMAIL));
+
+        UserCache.put(user("New name"), EMAIL, UserCache.generation());
+        assertEquals("New name", UserCache.get("STUDENT", EMAIL).name());
+    }
+
+    @Test
+    void dropsARowReadBeforeAClear() {
+        long read = UserCache.generation();
+        UserCache.clear(); // a DB copy replaced the local database
+        UserCache.put(user("Ana"), EMAIL, read);
+        assertNull(UserCache.get("STUDENT", EMAIL));
+    }
+
+    @Test
+    void invalidateRemovesTheEntry() {
+        UserCache.put(user("Ana"), EMAIL, UserCache.generation());
+        UserCache.invalidate("STUDENT", EMAIL);
+        assertNull(UserCache.get("STUDENT", EMAIL));
+        assertEquals(0, UserCache.size());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedBeyondCapacity() {
+        int capacity = Integer.getInteger("pd.userCache.size", 10_000);
+        long gen = UserCache.generation();
+        for (int i = 0; i <= capacity; i++) {
+            UserCache.put(user("u" + i), "u" + i + "@isec.pt", gen);
+            if (i == 0) continue;
+            assertNotNull(UserCache.get("STUDENT", "u0@isec.pt")); // keeps u0 the most recently used
+        }
+        assertEquals(capacity, UserCache.size());
+        assertNotNull(UserCache.get("STUDENT", "u0@isec.pt"));
+        assertNull(UserCache.get("STUDENT", "u1@isec.pt"));
+    }
+}
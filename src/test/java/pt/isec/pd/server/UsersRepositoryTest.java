@@ -0,0 +1,106 @@
+package pt.isec.pd.server;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pt.isec.pd.utils.ConnectDB;
+import pt.isec.pd.utils.DBSchema;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// CSV parsing of bulk student imports and the conflicts reported before and after hashing
+class UsersRepositoryTest {
+
+    @BeforeEach
+    void emptyStudents() throws SQLException {
+        DBSchema.createTables();
+        try (Connection c = ConnectDB.getConnection(); Statement st = c.createStatement()) {
+            st.executeUpdate("DELETE FROM Answer");
+            st.executeUpdate("DELETE FROM Student");
+        }
+        UserCache.clear();
+    }
+
+    private static UsersRepository.NewStudent student(String number, String email) {
+        return new UsersRepository.NewStudent(number, "Name " + number, email, "secret");
+    }
+
+    // registers the students with a placeholder hash (no PBKDF2 needed here)
+    private static String[] register(List<UsersRepository.NewStudent> students) throws SQLException {
+        String[] results = new String[students.size()];
+        List<Integer> rows = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < students.size(); i++) {
+            rows.add(i);
+            hashes.add("hash");
+        }
+        UsersRepository.insertStudents(students, rows, hashes, results);
+        return results;
+    }
+
+    @Test
+    void parsesPlainAndQuotedFields() {
+        assertEquals(new UsersRepository.NewStudent("2020001", "Ana Silva", "ana@isec.pt", "pw"),
+                UsersRepository.parseStudentCsv(" 2020001 , Ana Silva ,ANA@isec.pt, pw "));
+        assertEquals(new UsersRepository.NewStudent("2020002", "Silva, Ana \"Nita\"", "ana@isec.pt", "p,w"),
+                UsersRepository.parseStudentCsv("2020002,\"Silva, Ana \"\"Nita\"\"\",ana@isec.pt,\"p,w\""));
+    }
+
+    @Test
+    void rejectsMalformedLines() {
+        assertThrows(IllegalArgumentException.class, () -> UsersRepository.parseStudentCsv("1,Ana,ana@isec.pt"));
+        assertThrows(IllegalArgumentException.class, () -> UsersRepository.parseStudentCsv("1,Ana,ana@isec.pt,pw,extra"));
+        assertThrows(IllegalArgumentException.class, () -> UsersRepository.parseStudentCsv("1,,ana@isec.pt,pw"));
+        assertThrows(IllegalArgumentException.class, () -> UsersRepository.parseStudentCsv("1,\"Ana,ana@isec.pt,pw"));
+        assertThrows(IllegalArgumentException.class, () -> UsersRepository.parseStudentCsv("1,Ana,ana.isec.pt,pw"));
+        assertThrows(IllegalArgumentException.class, () -> UsersRepository.parseStudentCsv("1,Ana,@isec.pt,pw"));
+    }
+
+    @Test
+    void flagsDuplicatesInsideTheImport() throws SQLException {
+        String[] results = UsersRepository.checkNewStudents(List.of(
+                student("1", "a@isec.pt"),
+                student("2", "a@isec.pt"),   // same email
+                student("1", "b@isec.pt"),   // same number
+                student("3", "c@isec.pt")));
+        assertNull(results[0]);
+        assertEquals("DUPLICATE_IN_IMPORT", results[1]);
+        assertEquals("DUPLICATE_IN_IMPORT", results[2]);
+        assertNull(results[3]);
+    }
+
+    @Test
+    void flagsStudentsAlreadyRegistered() throws SQLException {
+        register(List.of(student("100", "old@isec.pt")));
+        String[] results = UsersRepository.checkNewStudents(List.of(
+                student("200", "old@isec.pt"),
+                student("100", "new@isec.pt"),
+                student("100", "old@isec.pt"),
+                student("300", "other@isec.pt")));
+        assertEquals("EMAIL_ALREADY_EXISTS", results[0]);
+        assertEquals("STUDENT_NUMBER_ALREADY_EXISTS", results[1]);
+        assertEquals("DUPLICATE_IN_IMPORT", results[2]);
+        assertNull(results[3]);
+    }
+
+    @Test
+    void reportsConflictsRegisteredAfterTheCheck() throws SQLException {
+        List<UsersRepository.NewStudent> students = List.of(student("10", "x@isec.pt"), student("11", "y@isec.pt"),
+                student("12", "z@isec.pt"));
+        String[] results = UsersRepository.checkNewStudents(students);
+        // while the import was hashing, two of its keys were registered by someone else
+        register(List.of(student("10", "elsewhere@isec.pt"), student("99", "y@isec.pt")));
+
+        UsersRepository.insertStudents(students, List.of(0, 1, 2), List.of("h", "h", "h"), results);
+        assertEquals("STUDENT_NUMBER_ALREADY_EXISTS", results[0]);
+        assertEquals("EMAIL_ALREADY_EXISTS", results[1]);
+        assertEquals("OK", results[2]);
+    }
+}
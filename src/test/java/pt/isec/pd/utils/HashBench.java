@@ -0,0 +1,68 @@
+package pt.isec.pd.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Password hashing throughput and saturation behaviour of HashExecutor (not a unit test; a plain
+// timing loop, so the figures are indicative only):
+//   mvn -q test-compile
+//   java -cp target/classes:target/test-classes pt.isec.pd.utils.HashBench [verifies] [callers]
+// Prints the single-caller verify rate, then starts `callers` verifies at once and reports how many
+// were served and how many were refused right away because the pool and its queue were full.
+// Use -Dpd.hash.threads / -Dpd.hash.queue to try other pool sizes.
+public final class HashBench {
+    private static final int WARMUP = 20;
+
+    private HashBench() { }
+
+    public static void main(String[] args) throws InterruptedException {
+        int verifies = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int callers = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        Log.setLevel(Log.Level.WARN);
+
+        String stored = SecurityUtils.createHash("benchmark-password");
+        for (int i = 0; i < WARMUP; i++) SecurityUtils.verify("benchmark-password", stored);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < verifies; i++) {
+            if (!SecurityUtils.verify("benchmark-password", stored)) throw new IllegalStateException("verify failed");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("single caller: %d verifies in %.2f s, %.1f verifies/s, %.1f ms each%n",
+                verifies, seconds, verifies / seconds, seconds * 1000 / verifies);
+
+        AtomicInteger served = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        AtomicInteger slowestRefusalMs = new AtomicInteger();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long t0 = System.nanoTime();
+                try {
+                    SecurityUtils.verify("benchmark-password", stored);
+                    served.incrementAndGet();
+                } catch (RejectedExecutionException e) {
+                    refused.incrementAndGet();
+                    slowestRefusalMs.accumulateAndGet((int) ((System.nanoTime() - t0) / 1_000_000), Math::max);
+                }
+            }, "caller-" + i);
+            t.start();
+            threads.add(t);
+        }
+        start = System.nanoTime();
+        go.countDown();
+        for (Thread t : threads) t.join();
+        System.out.printf("%d concurrent callers (%d hash threads): %d served in %d ms, %d refused (slowest refusal %d ms)%n",
+                callers, HashExecutor.threads(), served.get(), (System.nanoTime() - start) / 1_000_000,
+                refused.get(), slowestRefusalMs.get());
+    }
+}
@@ -0,0 +1,65 @@
+package pt.isec.pd.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Refill and limits of the token bucket on a simulated clock
+class TokenBucketTest {
+    private static final long MS = 1_000_000L;
+
+    private long now = 1_000 * MS;
+    // 100 tokens/s, so one token every 10 ms
+    private final TokenBucket bucket = new TokenBucket(100, 10, () -> now);
+
+    @Test
+    void startsFullAndRefusesWhenEmpty() {
+        assertTrue(bucket.tryAcquire(10));
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() {
+        assertTrue(bucket.tryAcquire(10));
+        now += 9 * MS;
+        assertFalse(bucket.tryAcquire(1), "a token after 9 ms");
+        now += 2 * MS;
+        assertTrue(bucket.tryAcquire(1), "no token after 11 ms");
+        now += 50 * MS;
+        assertTrue(bucket.tryAcquire(5));
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    void neverHoldsMoreThanItsCapacity() {
+        now += 60_000 * MS;
+        assertFalse(bucket.tryAcquire(11), "more than the capacity after a long idle period");
+        assertTrue(bucket.tryAcquire(10));
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    void aRefusedAcquireTakesNothing() {
+        assertTrue(bucket.tryAcquire(6));
+        assertFalse(bucket.tryAcquire(5));
+        assertTrue(bucket.tryAcquire(4));
+    }
+
+    @Test
+    void acquireBeyondTheCapacityLeavesADebt() throws InterruptedException {
+        bucket.acquire(10);
+        bucket.acquire(1); // waits 10 ms of real time, on a clock that doesn't move
+        now += 9 * MS;
+        assertFalse(bucket.tryAcquire(1), "the debt was not repaid");
+        now += 12 * MS;
+        assertTrue(bucket.tryAcquire(1), "no token once the debt was repaid");
+    }
+
+    @Test
+    void rejectsNonPositiveRateOrCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(10, 0));
+    }
+}